@@ -1,20 +1,30 @@
 package pl.edu.mimuw.nesc.plugin;
 
-import org.eclipse.core.resources.IncrementalProjectBuilder;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.ui.IEditorReference;
 import org.eclipse.ui.IWorkbenchPage;
 import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PartInitException;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
+import org.eclipse.ui.progress.UIJob;
 import org.osgi.framework.BundleContext;
 
 import pl.edu.mimuw.nesc.Frontend;
 import pl.edu.mimuw.nesc.NescFrontend;
+import pl.edu.mimuw.nesc.plugin.editor.NescEditor;
 import pl.edu.mimuw.nesc.plugin.editor.util.AutosaveListener;
+import pl.edu.mimuw.nesc.plugin.frontend.FrontendManager;
+import pl.edu.mimuw.nesc.plugin.natures.NescProjectNature;
+import pl.edu.mimuw.nesc.plugin.preferences.NescPluginPreferences;
 import pl.edu.mimuw.nesc.plugin.resources.NescResourceChangeListener;
 
 /**
@@ -51,7 +61,11 @@ public class NescPlugin extends AbstractUIPlugin {
 		plugin = this;
 		ResourcesPlugin.getWorkspace().addResourceChangeListener(NescResourceChangeListener.getInstance(),
 				NescResourceChangeListener.getHandledEvents());
-		buildWorkspace();
+		if (NescPluginPreferences.getBoolean(NescPluginPreferences.LAZY_BUILD)) {
+			prewarmProjectsJob();
+		} else {
+			buildWorkspace();
+		}
 	}
 
 	@Override
@@ -80,20 +94,66 @@ public class NescPlugin extends AbstractUIPlugin {
 		return NESC_FRONTEND;
 	}
 
-	private void buildWorkspace() {
-		final Job job = new Job("Building workspace...") {
+	/**
+	 * Schedules prewarming of the projects in the UI thread. The editors of
+	 * the previous session are not restored yet while the plug-in is being
+	 * started and the activation should not wait for the workbench.
+	 */
+	private void prewarmProjectsJob() {
+		final UIJob job = new UIJob("Prewarming nesC projects") {
 			@Override
-			protected IStatus run(IProgressMonitor monitor) {
-				try {
-					ResourcesPlugin.getWorkspace().build(IncrementalProjectBuilder.FULL_BUILD, monitor);
-				} catch (CoreException e) {
-					e.printStackTrace();
-					return Status.OK_STATUS;
-				}
+			public IStatus runInUIThread(IProgressMonitor monitor) {
+				prewarmProjects();
 				return Status.OK_STATUS;
 			}
 		};
-		job.setPriority(Job.BUILD);
+		job.setSystem(true);
 		job.schedule();
 	}
+
+	/**
+	 * Builds only the projects which files are opened in the editors restored
+	 * from the previous session. Other projects are built when any of their
+	 * files is opened or when the builder is invoked explicitly.
+	 */
+	private void prewarmProjects() {
+		final Set<IProject> projects = new HashSet<>();
+		for (IWorkbenchWindow window : this.getWorkbench().getWorkbenchWindows()) {
+			for (IWorkbenchPage page : window.getPages()) {
+				for (IEditorReference editor : page.getEditorReferences()) {
+					if (!NescEditor.EDITOR_ID.equals(editor.getId())) {
+						continue;
+					}
+					try {
+						final IResource resource = (IResource) editor.getEditorInput().getAdapter(IResource.class);
+						if (resource != null) {
+							projects.add(resource.getProject());
+						}
+					} catch (PartInitException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+		for (IProject project : projects) {
+			FrontendManager.buildContextJob(project);
+		}
+	}
+
+	/**
+	 * Builds all nesC projects of the workspace. Independent projects are
+	 * built concurrently.
+	 */
+	private void buildWorkspace() {
+		for (IProject project : ResourcesPlugin.getWorkspace().getRoot().getProjects()) {
+			try {
+				if (project.isOpen() && project.hasNature(NescProjectNature.NATURE_ID)) {
+					FrontendManager.buildContextJob(project);
+				}
+			} catch (CoreException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
 }
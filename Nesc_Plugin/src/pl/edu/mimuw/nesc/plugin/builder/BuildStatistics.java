@@ -0,0 +1,104 @@
+package pl.edu.mimuw.nesc.plugin.builder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of full and incremental builds and of their durations.
+ */
+public final class BuildStatistics {
+
+	private final AtomicLong fullBuilds = new AtomicLong();
+	private final AtomicLong fullBuildTime = new AtomicLong();
+	private final AtomicLong lastFullBuildTime = new AtomicLong(-1);
+	private final AtomicLong incrementalBuilds = new AtomicLong();
+	private final AtomicLong incrementalBuildTime = new AtomicLong();
+	private final AtomicLong lastIncrementalBuildTime = new AtomicLong(-1);
+	private final AtomicLong updatedFiles = new AtomicLong();
+
+	void recordFullBuild(long time) {
+		fullBuilds.incrementAndGet();
+		fullBuildTime.addAndGet(time);
+		lastFullBuildTime.set(time);
+	}
+
+	void recordIncrementalBuild(int filesCount, long time) {
+		incrementalBuilds.incrementAndGet();
+		incrementalBuildTime.addAndGet(time);
+		lastIncrementalBuildTime.set(time);
+		updatedFiles.addAndGet(filesCount);
+	}
+
+	/**
+	 * Gets the number of full builds.
+	 *
+	 * @return number of full builds
+	 */
+	public long getFullBuilds() {
+		return fullBuilds.get();
+	}
+
+	/**
+	 * Gets the total duration of full builds.
+	 *
+	 * @return duration in milliseconds
+	 */
+	public long getFullBuildTime() {
+		return fullBuildTime.get();
+	}
+
+	/**
+	 * Gets the duration of the last full build.
+	 *
+	 * @return duration in milliseconds or <code>-1</code> if there was no
+	 *         full build yet
+	 */
+	public long getLastFullBuildTime() {
+		return lastFullBuildTime.get();
+	}
+
+	/**
+	 * Gets the number of incremental builds which updated at least one file.
+	 *
+	 * @return number of incremental builds
+	 */
+	public long getIncrementalBuilds() {
+		return incrementalBuilds.get();
+	}
+
+	/**
+	 * Gets the total duration of incremental builds.
+	 *
+	 * @return duration in milliseconds
+	 */
+	public long getIncrementalBuildTime() {
+		return incrementalBuildTime.get();
+	}
+
+	/**
+	 * Gets the duration of the last incremental build.
+	 *
+	 * @return duration in milliseconds or <code>-1</code> if there was no
+	 *         incremental build yet
+	 */
+	public long getLastIncrementalBuildTime() {
+		return lastIncrementalBuildTime.get();
+	}
+
+	/**
+	 * Gets the number of files updated by incremental builds, including the
+	 * files depending on the changed ones.
+	 *
+	 * @return number of updated files
+	 */
+	public long getUpdatedFiles() {
+		return updatedFiles.get();
+	}
+
+	@Override
+	public String toString() {
+		return "full builds: " + fullBuilds.get() + " (" + fullBuildTime.get() + "ms, last "
+				+ lastFullBuildTime.get() + "ms), incremental builds: " + incrementalBuilds.get() + " ("
+				+ incrementalBuildTime.get() + "ms, last " + lastIncrementalBuildTime.get() + "ms), updated files: "
+				+ updatedFiles.get();
+	}
+}
@@ -1,20 +1,42 @@
 package pl.edu.mimuw.nesc.plugin.builder;
 
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.IncrementalProjectBuilder;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 
+import pl.edu.mimuw.nesc.ProjectData;
 import pl.edu.mimuw.nesc.plugin.frontend.FrontendManager;
+import pl.edu.mimuw.nesc.plugin.frontend.ProjectBuildScheduler;
+import pl.edu.mimuw.nesc.plugin.marker.MarkerHelper;
+import pl.edu.mimuw.nesc.plugin.preferences.NescPluginPreferences;
+import pl.edu.mimuw.nesc.plugin.resources.ProjectFileIndex;
+
+import com.google.common.base.Optional;
 
 /**
  * Schedules project builds according to the set of modified resources since
  * last build execution (ResourceDelta).
  *
+ * The builder runs with the workspace rule, which does not contain the rule
+ * of {@link ProjectBuildScheduler}. The frontend context is therefore
+ * modified in a separate job holding the rule of the project, so that it is
+ * never built or updated concurrently by other jobs.
+ *
  * @author Grzegorz Kołakowski <gk291583@students.mimuw.edu.pl>
  *
  */
@@ -26,13 +48,30 @@ public class NescProjectBuilder extends IncrementalProjectBuilder {
 
 	public static final String BUILDER_ID = "pl.edu.mimuw.nesc.plugin.builder.NescProjectBuilder";
 
+	private static final String NESC_EXTENSION = "nc";
+	private static final String HEADER_EXTENSION = "h";
+
+	private static final BuildStatistics STATISTICS = new BuildStatistics();
+
 	public NescProjectBuilder() {
 	}
 
+	/**
+	 * Gets the durations of full and incremental builds of all projects, which
+	 * show the gain of incremental builds.
+	 *
+	 * @return build statistics
+	 */
+	public static BuildStatistics getBuildStatistics() {
+		return STATISTICS;
+	}
+
 	@Override
 	protected void clean(IProgressMonitor monitor) throws CoreException {
-		/* Enable the user to reparse the entire project. */
-		FrontendManager.buildContext(getProject());
+		/* Enable the user to reparse the entire project. The project is built
+		 * by the full build following the clean or, since the last built state
+		 * is forgotten, by the next build of any kind. */
+		FrontendManager.markDirty(getProject());
 	}
 
 	@Override
@@ -45,7 +84,7 @@ public class NescProjectBuilder extends IncrementalProjectBuilder {
 		case INCREMENTAL_BUILD:
 		case AUTO_BUILD:
 			final IResourceDelta delta = getDelta(project);
-			partialBuild(project, delta);
+			partialBuild(project, delta, monitor);
 			break;
 		case FULL_BUILD:
 			fullBuild(project);
@@ -55,35 +94,170 @@ public class NescProjectBuilder extends IncrementalProjectBuilder {
 		return null;
 	}
 
-	private void partialBuild(IProject project, IResourceDelta delta) throws CoreException {
+	private void partialBuild(IProject project, IResourceDelta delta, IProgressMonitor monitor)
+			throws CoreException {
+		/* No delta after clean or when the last built state is lost. */
 		if (delta == null) {
+			fullBuild(project);
+			return;
+		}
+		/* The delta is available only during the build. */
+		final ResourceDeltaVisitor visitor = new ResourceDeltaVisitor();
+		delta.accept(visitor);
+		if (visitor.getChangedFiles().isEmpty() && visitor.getRemovedFiles().isEmpty()) {
+			return;
+		}
+		/* Project not used yet or evicted. Its data must not be restored
+		 * without the changes when it is built. */
+		if (!FrontendManager.isBuilt(project)) {
+			FrontendManager.markDirty(project);
+			return;
+		}
+		new UpdateJob(project, false, visitor.getChangedFiles(), visitor.getRemovedFiles()).schedule();
+	}
+
+	private void updateFiles(IProject project, Set<String> changedFiles, Set<String> removedFiles,
+			IProgressMonitor monitor) throws CoreException {
+		/* New options may change the result of parsing of any file. */
+		if (FrontendManager.haveOptionsChanged(project)) {
+			FrontendManager.updateContext(project);
+			forceFullBuild(project);
+			return;
+		}
+		if (changedFiles.isEmpty() && removedFiles.isEmpty()) {
+			return;
+		}
+
+		final long start = System.currentTimeMillis();
+		final Set<String> allChangedFiles = new LinkedHashSet<>(changedFiles);
+		allChangedFiles.addAll(removedFiles);
+		final Set<String> filesToUpdate = new LinkedHashSet<>(changedFiles);
+		filesToUpdate.addAll(FrontendManager.getDependentFiles(project, allChangedFiles));
+		filesToUpdate.removeAll(removedFiles);
+
+		for (String filePath : filesToUpdate) {
+			if (monitor.isCanceled()) {
+				return;
+			}
+			updateFile(project, filePath);
+		}
+		STATISTICS.recordIncrementalBuild(filesToUpdate.size(), System.currentTimeMillis() - start);
+	}
+
+	private void updateFile(IProject project, String filePath) throws CoreException {
+		final ProjectData projectData = FrontendManager.updateFile(project, filePath);
+		if (!projectData.getRootFileData().isPresent()) {
 			return;
 		}
-		delta.accept(new ResourceDeltaVisitor(project));
+		final Optional<IFile> file = ProjectFileIndex.getFile(project, filePath);
+		if (file.isPresent() && file.get().exists()) {
+			MarkerHelper.updateMarkers(project, file.get(), projectData.getRootFileData().get());
+		}
 	}
 
 	private void fullBuild(final IProject project) {
 		System.out.println("Full build");
-		// TODO
+		/* In lazy mode, projects not used yet are built when needed. */
+		if (NescPluginPreferences.getBoolean(NescPluginPreferences.LAZY_BUILD)
+				&& !FrontendManager.hasContext(project)) {
+			return;
+		}
+		/* On workspace startup the data may be restored from the cache. */
+		new UpdateJob(project, true, Collections.<String> emptySet(), Collections.<String> emptySet()).schedule();
+	}
+
+	private void forceFullBuild(IProject project) {
+		final long start = System.currentTimeMillis();
+		FrontendManager.buildContext(project);
+		STATISTICS.recordFullBuild(System.currentTimeMillis() - start);
 	}
 
 	/**
-	 * Resource delta visitor which helps to walk resources tree.
-	 *
-	 * @author Grzegorz Kołakowski <gk291583@students.mimuw.edu.pl>
+	 * Job building or updating the frontend context of the project under the
+	 * rule of the project.
 	 */
-	private final class ResourceDeltaVisitor implements IResourceDeltaVisitor {
+	private final class UpdateJob extends Job {
 
 		private final IProject project;
+		private final boolean fullBuild;
+		private final Set<String> changedFiles;
+		private final Set<String> removedFiles;
 
-		public ResourceDeltaVisitor(IProject project) {
+		UpdateJob(IProject project, boolean fullBuild, Set<String> changedFiles, Set<String> removedFiles) {
+			super("Building project " + project.getName() + "...");
 			this.project = project;
+			this.fullBuild = fullBuild;
+			this.changedFiles = changedFiles;
+			this.removedFiles = removedFiles;
+			setPriority(Job.BUILD);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			try {
+				ProjectBuildScheduler.beginRule(project, monitor);
+				if (fullBuild) {
+					forceFullBuild(project);
+				} else {
+					updateFiles(project, changedFiles, removedFiles, monitor);
+				}
+			} catch (OperationCanceledException e) {
+				return Status.CANCEL_STATUS;
+			} catch (CoreException e) {
+				e.printStackTrace();
+			} finally {
+				ProjectBuildScheduler.endRule(project);
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * Resource delta visitor which collects modified nesC source and header
+	 * files.
+	 */
+	private static final class ResourceDeltaVisitor implements IResourceDeltaVisitor {
+
+		private final Set<String> changedFiles = new LinkedHashSet<>();
+		private final Set<String> removedFiles = new LinkedHashSet<>();
+
+		public Set<String> getChangedFiles() {
+			return changedFiles;
+		}
+
+		public Set<String> getRemovedFiles() {
+			return removedFiles;
 		}
 
 		@Override
 		public boolean visit(IResourceDelta delta) throws CoreException {
-			// TODO
-			return true;
+			final IResource resource = delta.getResource();
+			if (resource.getType() != IResource.FILE) {
+				return true;
+			}
+			final String extension = resource.getFileExtension();
+			if (!NESC_EXTENSION.equals(extension) && !HEADER_EXTENSION.equals(extension)) {
+				return false;
+			}
+			final IPath location = resource.getLocation();
+			if (location == null) {
+				return false;
+			}
+
+			switch (delta.getKind()) {
+			case IResourceDelta.ADDED:
+				changedFiles.add(location.toOSString());
+				break;
+			case IResourceDelta.CHANGED:
+				if ((delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED)) != 0) {
+					changedFiles.add(location.toOSString());
+				}
+				break;
+			case IResourceDelta.REMOVED:
+				removedFiles.add(location.toOSString());
+				break;
+			}
+			return false;
 		}
 	}
 }
@@ -3,9 +3,15 @@ package pl.edu.mimuw.nesc.plugin.editor;
 import java.util.Stack;
 
 import org.eclipse.core.filesystem.URIUtil;
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.preference.PreferenceStore;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.BadPositionCategoryException;
@@ -27,21 +33,29 @@ import org.eclipse.jface.text.link.LinkedModeUI.ExitFlags;
 import org.eclipse.jface.text.link.LinkedModeUI.IExitPolicy;
 import org.eclipse.jface.text.link.LinkedPosition;
 import org.eclipse.jface.text.link.LinkedPositionGroup;
+import org.eclipse.jface.text.source.IAnnotationModel;
 import org.eclipse.jface.text.source.ISourceViewer;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.VerifyKeyListener;
 import org.eclipse.swt.events.VerifyEvent;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.editors.text.TextEditor;
 import org.eclipse.ui.ide.FileStoreEditorInput;
 import org.eclipse.ui.texteditor.link.EditorLinkedModeUI;
 
+import pl.edu.mimuw.nesc.FileData;
 import pl.edu.mimuw.nesc.plugin.editor.scanner.NescHeuristicScanner;
 import pl.edu.mimuw.nesc.plugin.editor.scanner.Symbols;
+import pl.edu.mimuw.nesc.plugin.frontend.FrontendManager;
+import pl.edu.mimuw.nesc.plugin.frontend.ProjectSnapshot;
+import pl.edu.mimuw.nesc.plugin.marker.MarkerHelper;
 import pl.edu.mimuw.nesc.plugin.partitioning.FastNescPartitioner;
 import pl.edu.mimuw.nesc.plugin.partitioning.INCPartitions;
 
+import com.google.common.base.Optional;
+
 public class NescEditor extends TextEditor {
 
 	public static final String EDITOR_ID = "pl.edu.mimuw.nesc.NesCEditor";
@@ -50,6 +64,14 @@ public class NescEditor extends TextEditor {
 	
 	private PreferenceStore prefStore = null;
 
+	/** Project registered in FrontendManager as having an open editor. */
+	private IProject openFileProject = null;
+
+	/* Tells if the reconciler is saving the contents, accessed in the UI thread. */
+	private boolean reconcilerSave = false;
+
+	private ProblemAnnotations problemAnnotations = null;
+
 	private class ExitPolicy implements IExitPolicy {
 		final char fExitCharacter;
 		final char fEscapeCharacter;
@@ -379,6 +401,127 @@ public class NescEditor extends TextEditor {
 		}
 	}
 
+	@Override
+	protected void doSetInput(IEditorInput input) throws CoreException {
+		super.doSetInput(input);
+		synchronized (this) {
+			if (problemAnnotations != null) {
+				problemAnnotations.dispose();
+				problemAnnotations = null;
+			}
+		}
+		if (openFileProject != null) {
+			FrontendManager.editorClosed(openFileProject);
+		}
+		openFileProject = getOpenFileProject();
+		if (openFileProject == null) {
+			return;
+		}
+		/* Projects with open editors are kept in memory. */
+		FrontendManager.editorOpened(openFileProject);
+		/* Projects are built lazily, when any of their files is opened. */
+		if (!FrontendManager.isBuilt(openFileProject)) {
+			FrontendManager.buildContextJob(openFileProject);
+		}
+	}
+
+	@Override
+	protected void performSave(boolean overwrite, IProgressMonitor progressMonitor) {
+		super.performSave(overwrite, progressMonitor);
+		/* The file on disk is up to date now. Saves of the reconciler are
+		 * followed by reconciling, which updates the temporary annotations. */
+		if (!isDirty() && !reconcilerSave) {
+			updateMarkersJob();
+		}
+	}
+
+	/**
+	 * Saves the contents of the editor before reconciling. Unlike the saves
+	 * of the user, it does not update the markers of the file. Must be called
+	 * in the UI thread.
+	 */
+	public void saveForReconciling() {
+		reconcilerSave = true;
+		try {
+			doSave(null);
+		} finally {
+			reconcilerSave = false;
+		}
+	}
+
+	/**
+	 * Gets the temporary problem annotations of the edited file.
+	 *
+	 * @return problem annotations or <code>null</code> if the editor has no
+	 *         annotation model
+	 */
+	public synchronized ProblemAnnotations getProblemAnnotations() {
+		if (problemAnnotations == null) {
+			final IAnnotationModel model = getDocumentProvider().getAnnotationModel(getEditorInput());
+			if (model == null) {
+				return null;
+			}
+			problemAnnotations = new ProblemAnnotations(model);
+		}
+		return problemAnnotations;
+	}
+
+	/**
+	 * Replaces the temporary annotations of the saved file with persistent
+	 * markers.
+	 */
+	private void updateMarkersJob() {
+		final IResource resource = (IResource) getEditorInput().getAdapter(IResource.class);
+		final String filePath = getFileLocation();
+		if (openFileProject == null || !(resource instanceof IFile) || filePath == null) {
+			return;
+		}
+		final IProject project = openFileProject;
+		final ProblemAnnotations annotations = getProblemAnnotations();
+		final Job job = new Job("Updating error markers...") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				final Optional<ProjectSnapshot> snapshot = FrontendManager.getSnapshot(project);
+				if (!snapshot.isPresent()) {
+					return Status.OK_STATUS;
+				}
+				final Optional<FileData> data = snapshot.get().getFileData(filePath);
+				if (!data.isPresent()) {
+					return Status.OK_STATUS;
+				}
+				try {
+					MarkerHelper.updateMarkers(project, (IFile) resource, data.get());
+				} catch (CoreException e) {
+					e.printStackTrace();
+					return Status.OK_STATUS;
+				}
+				/* Annotations of newer contents are kept. */
+				if (annotations != null) {
+					annotations.clear(snapshot.get().getVersion());
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.setPriority(Job.SHORT);
+		job.schedule();
+	}
+
+	@Override
+	public void dispose() {
+		if (openFileProject != null) {
+			FrontendManager.editorClosed(openFileProject);
+			openFileProject = null;
+		}
+		synchronized (this) {
+			if (problemAnnotations != null) {
+				problemAnnotations.dispose();
+				problemAnnotations = null;
+			}
+		}
+		ReconcileScheduler.dispose(getFileLocation());
+		super.dispose();
+	}
+
 	public IDocument getDocument() {
 		return getSourceViewer().getDocument();
 	}
@@ -238,7 +238,11 @@ public class NescReconciler extends MonoReconciler {
 				// Without the check this does not work. It should be checked if
 				// saving is allowed in such situations
 				if (fTextEditor.isDirty()) {
-					fTextEditor.doSave(null);
+					if (fTextEditor instanceof NescEditor) {
+						((NescEditor) fTextEditor).saveForReconciling();
+					} else {
+						fTextEditor.doSave(null);
+					}
 				}
 			}
 		});
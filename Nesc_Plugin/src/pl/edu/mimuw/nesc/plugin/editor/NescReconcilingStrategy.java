@@ -1,13 +1,11 @@
 package pl.edu.mimuw.nesc.plugin.editor;
 
+import java.io.IOException;
+
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.reconciler.DirtyRegion;
@@ -19,7 +17,11 @@ import org.eclipse.ui.texteditor.ITextEditor;
 
 import pl.edu.mimuw.nesc.ProjectData;
 import pl.edu.mimuw.nesc.plugin.frontend.FrontendManager;
-import pl.edu.mimuw.nesc.plugin.marker.MarkerHelper;
+import pl.edu.mimuw.nesc.plugin.frontend.ProjectBuildScheduler;
+import pl.edu.mimuw.nesc.plugin.frontend.ProjectSnapshot;
+import pl.edu.mimuw.nesc.plugin.resources.LineOffsetTable;
+
+import com.google.common.base.Optional;
 
 /**
  *
@@ -30,17 +32,13 @@ import pl.edu.mimuw.nesc.plugin.marker.MarkerHelper;
 public class NescReconcilingStrategy implements IReconcilingStrategy, IReconcilingStrategyExtension {
 
 	private final ITextEditor editor;
-	private IProgressMonitor progressMonitor;
-	private boolean reconciliationInProgress;
 
 	public NescReconcilingStrategy(ITextEditor editor) {
 		this.editor = editor;
-		this.reconciliationInProgress = false;
 	}
 
 	@Override
 	public void setProgressMonitor(IProgressMonitor monitor) {
-		progressMonitor = monitor;
 	}
 
 	@Override
@@ -82,54 +80,50 @@ public class NescReconcilingStrategy implements IReconcilingStrategy, IReconcili
 
 		/* All necessary data is obtained. */
 
-		synchronized (this) {
-			if (reconciliationInProgress) {
-				return;
-			}
-			reconciliationInProgress = true;
-			progressMonitor.beginTask("Reconciling " + path.toOSString(), IProgressMonitor.UNKNOWN);
-
-			/* Use job and wait until it finishes. Jobs on workspace are
-			 * synchronized, so we do not need to care about custom
-			 * synchronization. */
-			final Job job = new Job("Reconciling " + path) {
-				@Override
-				protected IStatus run(IProgressMonitor monitor) {
-					progressMonitor.beginTask("Reconciling " + path.toOSString(), IProgressMonitor.UNKNOWN);
-					long start = System.currentTimeMillis();
-					try {
-						reconcile(project, file, path);
-					} catch (CoreException e) {
-						e.printStackTrace();
-					} catch (Exception e) {
-						e.printStackTrace();
-					} finally {
-						reconciliationInProgress = false;
-					}
-					long end = System.currentTimeMillis();
-					System.out.println("Reconciling done in " + (end - start) + "ms.");
-					if (monitor != null) {
-						monitor.done();
-					}
-					if (progressMonitor != null) {
-						progressMonitor.done();
-					}
-					return Status.OK_STATUS;
+		/* Requests of the same file are coalesced, only the newest one is
+		 * analysed. */
+		ReconcileScheduler.forFile(path.toOSString()).schedule(new ReconcileScheduler.Request() {
+			@Override
+			public void run(IProgressMonitor monitor) {
+				/* Do not update the file while the project is being built. */
+				try {
+					ProjectBuildScheduler.beginRule(project, monitor);
+					reconcile(project, file, path, monitor);
+				} finally {
+					ProjectBuildScheduler.endRule(project);
 				}
-			};
-			job.setPriority(Job.SHORT);
-			job.schedule();
-		}
+			}
+		});
 	}
 
-	private void reconcile(IProject project, IFile file, IPath path) throws CoreException {
+	private void reconcile(IProject project, IFile file, IPath path, IProgressMonitor monitor) {
 		final ProjectData projectData = FrontendManager.updateFile(project, path.toOSString());
-		if (projectData.getRootFileData().isPresent()) {
-			MarkerHelper.updateMarkers(project, file, projectData.getRootFileData().get());
-			// TODO: update markers for all files.
-		} else {
+		/* The update is published, no other update runs under the project rule. */
+		final Optional<ProjectSnapshot> snapshot = FrontendManager.getSnapshot(project);
+		if (monitor.isCanceled()) {
+			/* A newer version of the document is waiting. */
+			return;
+		}
+		if (!snapshot.isPresent()) {
+			return;
+		}
+		if (!projectData.getRootFileData().isPresent()) {
 			System.err.println("Root file is absent!");
+			return;
 		}
-
+		/* Persistent markers are written by the builder and on save. */
+		final ProblemAnnotations annotations = ((NescEditor) editor).getProblemAnnotations();
+		if (annotations == null) {
+			return;
+		}
+		final LineOffsetTable lines;
+		try {
+			/* The editor was saved before reconciling, the file was parsed. */
+			lines = LineOffsetTable.forFile(file);
+		} catch (IOException e) {
+			System.err.println("Cannot read file " + file + ": " + e.getMessage());
+			return;
+		}
+		annotations.update(projectData.getRootFileData().get(), lines, snapshot.get().getVersion());
 	}
 }
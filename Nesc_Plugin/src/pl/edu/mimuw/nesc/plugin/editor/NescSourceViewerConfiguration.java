@@ -43,6 +43,7 @@ import org.eclipse.ui.texteditor.ITextEditor;
 
 import pl.edu.mimuw.nesc.plugin.editor.contentassist.NescCompletionProcessor;
 import pl.edu.mimuw.nesc.plugin.editor.contentassist.PreprocessorCompletionProcessor;
+import pl.edu.mimuw.nesc.plugin.editor.contentassist.ProposalSorter;
 import pl.edu.mimuw.nesc.plugin.editor.scanner.NescAutoIndentStrategy;
 import pl.edu.mimuw.nesc.plugin.editor.scanner.NumberRule;
 import pl.edu.mimuw.nesc.plugin.editor.scanner.OperatorRule;
@@ -387,10 +388,14 @@ public class NescSourceViewerConfiguration extends TextSourceViewerConfiguration
 		// TODO: Register ICompletionListener in ContentAssistant which will
 		// disable reconciling during completion proposal session.
 		final IContentAssistProcessor preprocessorAssistant = new PreprocessorCompletionProcessor();
-		final IContentAssistProcessor defaultAssistant = new NescCompletionProcessor(nescEditor);
+		final NescCompletionProcessor defaultAssistant = new NescCompletionProcessor(nescEditor);
 
 		contentAssistant.enableAutoActivation(true);
 		contentAssistant.setAutoActivationDelay(AUTO_ACTIVATION_DELAY);
+		/* Proposals are ranked again whenever they are narrowed. */
+		contentAssistant.setSorter(new ProposalSorter());
+		/* Closing the popup cancels the computation of proposals. */
+		contentAssistant.addCompletionListener(defaultAssistant);
 
 		contentAssistant.setContentAssistProcessor(preprocessorAssistant, INCPartitions.NC_PREPROCESSOR);
 		contentAssistant.setContentAssistProcessor(defaultAssistant, IDocument.DEFAULT_CONTENT_TYPE);
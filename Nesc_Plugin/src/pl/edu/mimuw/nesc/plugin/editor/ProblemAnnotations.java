@@ -0,0 +1,210 @@
+package pl.edu.mimuw.nesc.plugin.editor;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.ISynchronizable;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
+import org.eclipse.jface.text.source.IAnnotationModel;
+import org.eclipse.jface.text.source.IAnnotationModelExtension;
+import org.eclipse.jface.text.source.IAnnotationModelListener;
+import org.eclipse.ui.texteditor.MarkerAnnotation;
+
+import pl.edu.mimuw.nesc.FileData;
+import pl.edu.mimuw.nesc.ast.Location;
+import pl.edu.mimuw.nesc.plugin.marker.MarkerHelper;
+import pl.edu.mimuw.nesc.plugin.resources.LineOffsetTable;
+import pl.edu.mimuw.nesc.problem.NescError;
+import pl.edu.mimuw.nesc.problem.NescIssue;
+import pl.edu.mimuw.nesc.problem.NescWarning;
+
+import com.google.common.base.Optional;
+
+/**
+ * <p>
+ * Temporary problem annotations of an editor. They present the issues found
+ * while reconciling the unsaved contents of the editor, without creating
+ * persistent markers, which are written only by the builder and on save.
+ * </p>
+ * <p>
+ * All annotations are replaced at once on every update. While the temporary
+ * annotations are present, the annotations of the problem markers of the file
+ * are hidden, since they may be out of date. The temporary annotations are
+ * removed only when markers created from data at least as new have been
+ * written.
+ * </p>
+ */
+public final class ProblemAnnotations {
+
+	public static final String ERROR_TYPE = "org.eclipse.ui.workbench.texteditor.error";
+	public static final String WARNING_TYPE = "org.eclipse.ui.workbench.texteditor.warning";
+
+	private final IAnnotationModel model;
+
+	/* Markers added while the temporary annotations are shown are hidden too. */
+	private final IAnnotationModelListener markerListener = new IAnnotationModelListener() {
+		@Override
+		public void modelChanged(IAnnotationModel model) {
+			if (active) {
+				hideMarkers(true);
+			}
+		}
+	};
+
+	/* Guarded by this. */
+	private Annotation[] annotations = new Annotation[0];
+	/* Version of the snapshot the annotations were created from, guarded by this. */
+	private long version = 0L;
+	/* Tells if the temporary annotations replace the markers. */
+	private volatile boolean active = false;
+
+	public ProblemAnnotations(IAnnotationModel model) {
+		this.model = model;
+		model.addAnnotationModelListener(markerListener);
+	}
+
+	/**
+	 * Replaces the annotations with the ones of the issues of the file.
+	 *
+	 * @param data
+	 *            data of the file
+	 * @param lines
+	 *            line offsets of the contents the data was created from
+	 * @param version
+	 *            version of the snapshot the data comes from
+	 */
+	public synchronized void update(FileData data, LineOffsetTable lines, long version) {
+		if (version < this.version) {
+			return;
+		}
+		final Map<Annotation, Position> newAnnotations = new HashMap<>();
+		for (NescIssue issue : data.getIssues().values()) {
+			final Annotation annotation = new Annotation(issue.accept(new AnnotationTypeVisitor(), null), false,
+					issue.getMessage());
+			newAnnotations.put(annotation, getPosition(lines, issue));
+		}
+		this.version = version;
+		active = true;
+		replace(newAnnotations);
+	}
+
+	/**
+	 * Removes all annotations when the markers are up to date, i.e. were
+	 * created from data not older than the data of the annotations.
+	 *
+	 * @param markersVersion
+	 *            version of the snapshot the markers were created from
+	 */
+	public synchronized void clear(long markersVersion) {
+		if (markersVersion < version) {
+			return;
+		}
+		active = false;
+		replace(new HashMap<Annotation, Position>());
+	}
+
+	/**
+	 * Removes the annotations and stops listening to the annotation model.
+	 */
+	public synchronized void dispose() {
+		model.removeAnnotationModelListener(markerListener);
+		active = false;
+		replace(new HashMap<Annotation, Position>());
+	}
+
+	private void replace(Map<Annotation, Position> newAnnotations) {
+		final Object lock = getLockObject();
+		synchronized (lock) {
+			/* The change of the model below repaints the markers. */
+			hideMarkers(active);
+			if (model instanceof IAnnotationModelExtension) {
+				((IAnnotationModelExtension) model).replaceAnnotations(annotations, newAnnotations);
+			} else {
+				for (Annotation annotation : annotations) {
+					model.removeAnnotation(annotation);
+				}
+				for (Map.Entry<Annotation, Position> entry : newAnnotations.entrySet()) {
+					model.addAnnotation(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		annotations = newAnnotations.keySet().toArray(new Annotation[newAnnotations.size()]);
+	}
+
+	private void hideMarkers(boolean hidden) {
+		synchronized (getLockObject()) {
+			final Iterator<?> it = model.getAnnotationIterator();
+			while (it.hasNext()) {
+				final Object annotation = it.next();
+				if (isProblemMarker(annotation)) {
+					((Annotation) annotation).markDeleted(hidden);
+				}
+			}
+		}
+	}
+
+	private static boolean isProblemMarker(Object annotation) {
+		if (!(annotation instanceof MarkerAnnotation)) {
+			return false;
+		}
+		try {
+			return MarkerHelper.ERROR_MARKER.equals(((MarkerAnnotation) annotation).getMarker().getType());
+		} catch (CoreException e) {
+			/* The marker does not exist any more. */
+			return false;
+		}
+	}
+
+	private Object getLockObject() {
+		if (model instanceof ISynchronizable) {
+			final Object lock = ((ISynchronizable) model).getLockObject();
+			if (lock != null) {
+				return lock;
+			}
+		}
+		return model;
+	}
+
+	private static Position getPosition(LineOffsetTable lines, NescIssue issue) {
+		final Optional<Location> start = issue.getStartLocation();
+		if (!start.isPresent()) {
+			return new Position(0, 0);
+		}
+		/* Issues at the end of the file have line set to -1. */
+		if (start.get().getLine() < 0) {
+			return new Position(Math.max(lines.getLength() - 1, 0), 0);
+		}
+		try {
+			final int startOffset = lines.getOffset(start.get().getLine(), start.get().getColumn());
+			int endOffset = startOffset + 1;
+			if (issue.getEndLocation().isPresent()) {
+				/* End offset is exclusive - add one. */
+				endOffset = lines.getOffset(issue.getEndLocation().get().getLine(), issue.getEndLocation().get()
+						.getColumn()) + 1;
+			}
+			return new Position(startOffset, Math.max(endOffset - startOffset, 0));
+		} catch (BadLocationException e) {
+			return new Position(0, 0);
+		}
+	}
+
+	/**
+	 * Gets the annotation type of the problem class.
+	 */
+	private static final class AnnotationTypeVisitor implements NescIssue.Visitor<String, Void> {
+
+		@Override
+		public String visit(NescError error, Void arg) {
+			return ERROR_TYPE;
+		}
+
+		@Override
+		public String visit(NescWarning warning, Void arg) {
+			return WARNING_TYPE;
+		}
+	}
+}
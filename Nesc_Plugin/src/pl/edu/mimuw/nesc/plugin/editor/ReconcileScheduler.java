@@ -0,0 +1,199 @@
+package pl.edu.mimuw.nesc.plugin.editor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Latest-wins reconcile queue of a single file. At most one reconcile is
+ * running and at most one is pending. A request that arrives while another one
+ * is pending replaces it, since only the newest version of the document is
+ * worth analysing. A request that arrives while another one is running cancels
+ * the monitor of the running one, so that it can skip the rest of its work.
+ * </p>
+ * <p>
+ * All requests of a file are executed by the same job.
+ * </p>
+ */
+public final class ReconcileScheduler {
+
+	private static final ConcurrentMap<String, ReconcileScheduler> SCHEDULERS = new ConcurrentHashMap<>();
+
+	/**
+	 * Gets the scheduler of the given file. The scheduler is created on the
+	 * first call.
+	 *
+	 * @param filePath
+	 *            file path
+	 * @return scheduler
+	 */
+	public static ReconcileScheduler forFile(String filePath) {
+		Preconditions.checkNotNull(filePath, "file path cannot be null");
+		final ReconcileScheduler scheduler = SCHEDULERS.get(filePath);
+		if (scheduler != null) {
+			return scheduler;
+		}
+		final ReconcileScheduler newScheduler = new ReconcileScheduler(filePath);
+		final ReconcileScheduler previous = SCHEDULERS.putIfAbsent(filePath, newScheduler);
+		return previous != null ? previous : newScheduler;
+	}
+
+	/**
+	 * Cancels all requests of the given file and removes its scheduler.
+	 *
+	 * @param filePath
+	 *            file path
+	 */
+	public static void dispose(String filePath) {
+		if (filePath == null) {
+			return;
+		}
+		final ReconcileScheduler scheduler = SCHEDULERS.remove(filePath);
+		if (scheduler != null) {
+			scheduler.cancel();
+		}
+	}
+
+	private final Job job;
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong merged = new AtomicLong();
+	private final AtomicLong executed = new AtomicLong();
+
+	/* Guarded by this. */
+	private Request pending;
+	private IProgressMonitor runningMonitor;
+
+	private ReconcileScheduler(String filePath) {
+		this.job = new Job("Reconciling " + filePath) {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				runPending(monitor);
+				return Status.OK_STATUS;
+			}
+		};
+		this.job.setPriority(Job.SHORT);
+		this.job.setSystem(true);
+	}
+
+	/**
+	 * Schedules the request. The pending request, if any, is replaced and the
+	 * running one is cancelled.
+	 *
+	 * @param request
+	 *            request
+	 */
+	public void schedule(Request request) {
+		Preconditions.checkNotNull(request, "request cannot be null");
+		synchronized (this) {
+			if (pending != null) {
+				merged.incrementAndGet();
+			}
+			pending = request;
+			if (runningMonitor != null) {
+				runningMonitor.setCanceled(true);
+			}
+		}
+		/* Scheduling a running job makes it run once again when finished. */
+		job.schedule();
+	}
+
+	/**
+	 * Cancels the pending and the running request.
+	 */
+	public void cancel() {
+		synchronized (this) {
+			if (pending != null) {
+				dropped.incrementAndGet();
+				pending = null;
+			}
+			if (runningMonitor != null) {
+				runningMonitor.setCanceled(true);
+			}
+		}
+		job.cancel();
+	}
+
+	/**
+	 * Gets the number of requests that were started but were superseded by a
+	 * newer request or cancelled before completion.
+	 *
+	 * @return number of dropped requests
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Gets the number of requests that were replaced by a newer one before they
+	 * were started.
+	 *
+	 * @return number of merged requests
+	 */
+	public long getMergedCount() {
+		return merged.get();
+	}
+
+	/**
+	 * Gets the number of requests that were executed to completion.
+	 *
+	 * @return number of executed requests
+	 */
+	public long getExecutedCount() {
+		return executed.get();
+	}
+
+	private void runPending(IProgressMonitor jobMonitor) {
+		while (!jobMonitor.isCanceled()) {
+			final Request request;
+			final IProgressMonitor monitor = new NullProgressMonitor();
+			synchronized (this) {
+				if (pending == null) {
+					return;
+				}
+				request = pending;
+				pending = null;
+				runningMonitor = monitor;
+			}
+			try {
+				request.run(monitor);
+			} catch (Exception e) {
+				e.printStackTrace();
+			} finally {
+				synchronized (this) {
+					runningMonitor = null;
+				}
+			}
+			if (monitor.isCanceled()) {
+				dropped.incrementAndGet();
+			} else {
+				executed.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Single reconcile request.
+	 */
+	public interface Request {
+		/**
+		 * Performs the reconcile. Implementations should check the monitor
+		 * between long-running steps and stop when it is cancelled, since it
+		 * means that a newer request is waiting.
+		 *
+		 * @param monitor
+		 *            monitor
+		 * @throws Exception
+		 *             when reconciling fails
+		 */
+		void run(IProgressMonitor monitor) throws Exception;
+	}
+}
@@ -0,0 +1,274 @@
+package pl.edu.mimuw.nesc.plugin.editor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+import pl.edu.mimuw.nesc.FileData;
+import pl.edu.mimuw.nesc.ast.Location;
+import pl.edu.mimuw.nesc.environment.Environment;
+import pl.edu.mimuw.nesc.environment.ScopeType;
+import pl.edu.mimuw.nesc.plugin.NescPlugin;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Index of the ranges of the scopes of a file. Answers which scope is the
+ * innermost one at given line and column in logarithmic time, e.g. for
+ * content assist, hovers or occurrences.
+ * </p>
+ * <p>
+ * The text of the file is divided into disjoint segments, each one assigned
+ * to the innermost scope covering it. Since scopes are nested, a lookup is a
+ * single binary search over the beginnings of segments.
+ * </p>
+ * <p>
+ * Due to a syntax error the end location of a scope may not be set. We can
+ * assume that the error has caused that the scope was not properly "closed",
+ * so such a scope covers the text until the end of its enclosing scope,
+ * unless a properly built scope or a further unterminated scope on the same
+ * level begins. Example:
+ * </p>
+ *
+ * <pre>
+ * int foo() { int bar; someerroneousstring }
+ * </pre>
+ * <p>
+ * The "someerroneousstring" causes a syntax error, so that the following '}'
+ * is eaten, hence the function is not properly closed.
+ * </p>
+ * <p>
+ * Indexes are cached per version of the data of a file.
+ * </p>
+ */
+public final class ScopeIndex {
+
+	private static final int CACHE_SIZE = 32;
+
+	/* Guarded by itself. Keys are file paths. */
+	private static final Map<String, ScopeIndex> CACHE = new LinkedHashMap<String, ScopeIndex>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ScopeIndex> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private static final ScopeComparator COMPARATOR = new ScopeComparator();
+
+	private final FileData fileData;
+	/* Beginnings of segments, sorted. */
+	private final long[] segmentStarts;
+	private final Environment[] segmentScopes;
+
+	/**
+	 * Gets the index of the scopes from the given data of a file. The index is
+	 * built only if there is no index for this data yet.
+	 *
+	 * @param filePath
+	 *            path of the file
+	 * @param fileData
+	 *            current data of the file
+	 * @return scope index
+	 */
+	public static ScopeIndex get(String filePath, FileData fileData) {
+		Preconditions.checkNotNull(filePath, "file path cannot be null");
+		Preconditions.checkNotNull(fileData, "file data cannot be null");
+
+		synchronized (CACHE) {
+			final ScopeIndex cached = CACHE.get(filePath);
+			/* New data means the file was parsed again. */
+			if (cached != null && cached.fileData == fileData) {
+				return cached;
+			}
+		}
+		final ScopeIndex index = build(fileData);
+		synchronized (CACHE) {
+			CACHE.put(filePath, index);
+		}
+		return index;
+	}
+
+	private static ScopeIndex build(FileData fileData) {
+		final Builder builder = new Builder();
+		builder.addScope(fileData.getEnvironment(), Long.MIN_VALUE, Long.MAX_VALUE);
+		return new ScopeIndex(fileData, builder.getStarts(), builder.getScopes());
+	}
+
+	private ScopeIndex(FileData fileData, long[] segmentStarts, Environment[] segmentScopes) {
+		this.fileData = fileData;
+		this.segmentStarts = segmentStarts;
+		this.segmentScopes = segmentScopes;
+	}
+
+	/**
+	 * Returns the most nested environment in the given location.
+	 *
+	 * @param location
+	 *            current location
+	 * @return the most nested environment in given location
+	 */
+	public Environment getEnvironment(Location location) {
+		return getEnvironment(location.getLine(), location.getColumn());
+	}
+
+	/**
+	 * Returns the most nested environment at the given line and column.
+	 *
+	 * @param line
+	 *            line number
+	 * @param column
+	 *            column number
+	 * @return the most nested environment at the given position
+	 */
+	public Environment getEnvironment(int line, int column) {
+		int index = Arrays.binarySearch(segmentStarts, toKey(line, column));
+		if (index < 0) {
+			/* Segment that begins before the position. */
+			index = -index - 2;
+		}
+		return segmentScopes[index];
+	}
+
+	/**
+	 * Maps position to a number preserving the order of positions.
+	 */
+	private static long toKey(int line, int column) {
+		return ((long) line << 32) | (column & 0xFFFFFFFFL);
+	}
+
+	private static long toKey(Location location) {
+		return toKey(location.getLine(), location.getColumn());
+	}
+
+	/**
+	 * Divides the ranges of nested scopes into disjoint segments.
+	 */
+	private static final class Builder {
+
+		private final List<Long> starts = new ArrayList<>();
+		private final List<Environment> scopes = new ArrayList<>();
+
+		/**
+		 * Assigns the segments of text between <code>from</code> (inclusive)
+		 * and <code>to</code> (exclusive) to the scope or to its nested
+		 * scopes.
+		 */
+		void addScope(Environment scope, long from, long to) {
+			final List<Environment> terminated = new ArrayList<>();
+			final List<Environment> unterminated = new ArrayList<>();
+			final TreeSet<Long> boundaries = new TreeSet<>();
+			boundaries.add(from);
+
+			for (Environment nested : scope.getEnclosedEnvironments()) {
+				if (nested.getScopeType().equals(ScopeType.OTHER)) {
+					continue;
+				}
+				if (!nested.getStartLocation().isPresent()) {
+					NescPlugin.getDefault().getLog().log(new Status(IStatus.WARNING, NescPlugin.PLUGIN_ID,
+							"Scope without start location skipped in the scope index."));
+					continue;
+				}
+				final long start = toKey(nested.getStartLocation().get());
+				if (start >= to) {
+					continue;
+				}
+				if (nested.getEndLocation().isPresent()) {
+					/* End location is inclusive. */
+					final long end = toKey(nested.getEndLocation().get()) + 1;
+					if (end <= from) {
+						continue;
+					}
+					terminated.add(nested);
+					addBoundary(boundaries, end, from, to);
+				} else {
+					unterminated.add(nested);
+				}
+				addBoundary(boundaries, start, from, to);
+			}
+			Collections.sort(terminated, COMPARATOR);
+			Collections.sort(unterminated, COMPARATOR);
+
+			/*
+			 * No scope begins or ends inside an interval between consecutive
+			 * boundaries, so it belongs to a single scope.
+			 */
+			int terminatedIndex = -1;
+			int unterminatedIndex = -1;
+			final Long[] points = boundaries.toArray(new Long[boundaries.size()]);
+			for (int i = 0; i < points.length; ++i) {
+				final long begin = points[i];
+				final long end = i + 1 < points.length ? points[i + 1] : to;
+				while (terminatedIndex + 1 < terminated.size()
+						&& toKey(terminated.get(terminatedIndex + 1).getStartLocation().get()) <= begin) {
+					++terminatedIndex;
+				}
+				while (unterminatedIndex + 1 < unterminated.size()
+						&& toKey(unterminated.get(unterminatedIndex + 1).getStartLocation().get()) <= begin) {
+					++unterminatedIndex;
+				}
+
+				/* Properly built scopes take precedence over the unterminated. */
+				if (terminatedIndex >= 0 && contains(terminated.get(terminatedIndex), begin)) {
+					addScope(terminated.get(terminatedIndex), begin, end);
+				} else if (unterminatedIndex >= 0) {
+					addScope(unterminated.get(unterminatedIndex), begin, end);
+				} else {
+					addSegment(begin, scope);
+				}
+			}
+		}
+
+		long[] getStarts() {
+			final long[] result = new long[starts.size()];
+			for (int i = 0; i < result.length; ++i) {
+				result[i] = starts.get(i);
+			}
+			return result;
+		}
+
+		Environment[] getScopes() {
+			return scopes.toArray(new Environment[scopes.size()]);
+		}
+
+		private void addSegment(long begin, Environment scope) {
+			/* Merge with the previous segment of the same scope. */
+			if (!scopes.isEmpty() && scopes.get(scopes.size() - 1) == scope) {
+				return;
+			}
+			starts.add(begin);
+			scopes.add(scope);
+		}
+
+		private static void addBoundary(TreeSet<Long> boundaries, long point, long from, long to) {
+			if (point > from && point < to) {
+				boundaries.add(point);
+			}
+		}
+
+		private static boolean contains(Environment scope, long point) {
+			return toKey(scope.getStartLocation().get()) <= point && point <= toKey(scope.getEndLocation().get());
+		}
+	}
+
+	/**
+	 * Orders scopes by their start locations.
+	 */
+	private static final class ScopeComparator implements Comparator<Environment> {
+
+		@Override
+		public int compare(Environment lhs, Environment rhs) {
+			return Long.compare(toKey(lhs.getStartLocation().get()), toKey(rhs.getStartLocation().get()));
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package pl.edu.mimuw.nesc.plugin.editor.contentassist;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import pl.edu.mimuw.nesc.FileData;
+import pl.edu.mimuw.nesc.ast.Location;
+import pl.edu.mimuw.nesc.environment.Environment;
+import pl.edu.mimuw.nesc.plugin.editor.ScopeIndex;
+import pl.edu.mimuw.nesc.plugin.editor.contentassist.pattern.Pattern;
+
+import com.google.common.base.Optional;
+
+/**
+ * <p>
+ * Computes completion proposals in the background, so that looking up the
+ * current scope and building proposals do not block the UI thread.
+ * </p>
+ * <p>
+ * Proposals of local declarations are published first, since they are few
+ * and the most relevant. Then proposals of the other visible declarations
+ * are computed and published together with the local ones. Only the data of proposals is computed here, the final
+ * proposals are created in the UI thread.
+ * </p>
+ */
+class CompletionComputation extends Job {
+
+	private static final String JOB_NAME = "Computing completion proposals";
+
+	private final String filePath;
+	private final FileData fileData;
+	private final Location location;
+	private final int offset;
+	private final long documentStamp;
+	private final List<Pattern> matchingPatterns;
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile ProposalBuilder result;
+	private volatile boolean complete;
+
+	/**
+	 * Creates a computation.
+	 *
+	 * @param filePath
+	 *            path of the current file
+	 * @param fileData
+	 *            current file data
+	 * @param location
+	 *            location of the offset
+	 * @param offset
+	 *            current offset
+	 * @param documentStamp
+	 *            modification stamp of the document at the moment of the
+	 *            request
+	 * @param matchingPatterns
+	 *            patterns matching the text before the offset, not modified
+	 *            afterwards
+	 */
+	CompletionComputation(String filePath, FileData fileData, Location location, int offset, long documentStamp,
+			List<Pattern> matchingPatterns) {
+		super(JOB_NAME);
+		this.filePath = filePath;
+		this.fileData = fileData;
+		this.location = location;
+		this.offset = offset;
+		this.documentStamp = documentStamp;
+		this.matchingPatterns = matchingPatterns;
+		setSystem(true);
+		setPriority(INTERACTIVE);
+	}
+
+	@Override
+	protected IStatus run(IProgressMonitor monitor) {
+		try {
+			/* Get symbols visible in the current scope. */
+			final Environment environment = ScopeIndex.get(filePath, fileData).getEnvironment(location);
+			final ScopeSymbolTable symbolTable = ScopeSymbolTable.get(filePath, fileData, environment);
+			if (monitor.isCanceled()) {
+				return Status.CANCEL_STATUS;
+			}
+
+			final ObjectProposalBuilder localBuilder = new ObjectProposalBuilder(offset, symbolTable,
+					matchingPatterns, true, monitor);
+			localBuilder.buildProposals();
+			result = localBuilder;
+
+			/* The published local proposals are not modified any more. */
+			final ObjectProposalBuilder builder = new ObjectProposalBuilder(offset, symbolTable, matchingPatterns,
+					false, monitor);
+			builder.buildProposals();
+			builder.addAll(localBuilder);
+			result = builder;
+			complete = true;
+			return Status.OK_STATUS;
+		} catch (OperationCanceledException e) {
+			return Status.CANCEL_STATUS;
+		} finally {
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Waits until all proposals are computed or the time runs out.
+	 *
+	 * @param timeout
+	 *            maximum time to wait in milliseconds
+	 * @return <code>true</code> if all proposals are computed
+	 */
+	boolean await(long timeout) {
+		try {
+			done.await(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return complete;
+	}
+
+	boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Gets the proposals computed so far.
+	 *
+	 * @return builder of the proposals or <code>Optional.absent()</code> if
+	 *         no proposals were computed yet
+	 */
+	Optional<ProposalBuilder> getResult() {
+		return Optional.fromNullable(result);
+	}
+
+	int getOffset() {
+		return offset;
+	}
+
+	long getDocumentStamp() {
+		return documentStamp;
+	}
+}
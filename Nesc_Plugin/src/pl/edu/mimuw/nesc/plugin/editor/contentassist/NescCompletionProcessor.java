@@ -1,29 +1,35 @@
 package pl.edu.mimuw.nesc.plugin.editor.contentassist;
 
-import static pl.edu.mimuw.nesc.plugin.editor.contentassist.EnvironmentUtils.flattenEnvironment;
-import static pl.edu.mimuw.nesc.plugin.editor.contentassist.EnvironmentUtils.getEnvironment;
-
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
 import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITextOperationTarget;
 import org.eclipse.jface.text.ITextSelection;
 import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.jface.text.Region;
-import org.eclipse.jface.text.contentassist.CompletionProposal;
+import org.eclipse.jface.text.contentassist.ContentAssistEvent;
+import org.eclipse.jface.text.contentassist.ICompletionListener;
 import org.eclipse.jface.text.contentassist.ICompletionProposal;
+import org.eclipse.jface.text.source.ISourceViewer;
 import org.eclipse.jface.text.templates.Template;
 import org.eclipse.jface.text.templates.TemplateContext;
 import org.eclipse.jface.text.templates.TemplateContextType;
 import org.eclipse.jface.text.templates.TemplateException;
+import org.eclipse.swt.custom.CaretEvent;
+import org.eclipse.swt.custom.CaretListener;
+import org.eclipse.swt.custom.StyledText;
 import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Display;
 
 import pl.edu.mimuw.nesc.FileData;
 import pl.edu.mimuw.nesc.ast.Location;
-import pl.edu.mimuw.nesc.environment.Environment;
 import pl.edu.mimuw.nesc.plugin.editor.ImageManager;
 import pl.edu.mimuw.nesc.plugin.editor.NescEditor;
 import pl.edu.mimuw.nesc.plugin.editor.contentassist.pattern.CommandEventPattern;
@@ -35,49 +41,129 @@ import pl.edu.mimuw.nesc.plugin.editor.contentassist.scanner.ContextScanner;
 import pl.edu.mimuw.nesc.plugin.editor.contentassist.scanner.DefaultPartitionScanner;
 import pl.edu.mimuw.nesc.plugin.editor.contentassist.scanner.Token;
 import pl.edu.mimuw.nesc.plugin.frontend.FrontendManager;
+import pl.edu.mimuw.nesc.plugin.preferences.NescPluginPreferences;
+
+import com.google.common.base.Optional;
 
 /**
+ * <p>
  * Completion proposals processor for nesc code.
+ * </p>
+ * <p>
+ * Proposals are computed in the background. The UI thread waits for them at
+ * most for the time set in preferences, then the proposals computed so far
+ * are shown and the rest are merged in when ready. The computation is
+ * cancelled when the caret moves or the proposal popup is closed.
+ * </p>
  *
  * @author Grzegorz Kołakowski <gk291583@students.mimuw.edu.pl>
  *
  */
-public class NescCompletionProcessor extends CompletionProcessorBase {
+public class NescCompletionProcessor extends CompletionProcessorBase implements ICompletionListener {
 
 	private static final TemplateContextType NESC_CONTEXT_TYPE = new NescContextType();
 	private static final char[] AUTO_ACTIVATION_CHARACTERS = new char[] { '.', '>' };
 
-	// TODO: for each scope type provide different set of patterns
-	private static final Pattern[] PATTERNS = new Pattern[] { new VariablePattern(), new CommandEventPattern(),
-			new TaskPattern(), new IdentifierChainPattern() };
-
-	private static final NescProposalsComparator COMPARATOR = new NescProposalsComparator();
+	private static final ProposalSorter COMPARATOR = new ProposalSorter();
 
 	private final NescEditor nescEditor;
 	private final ContextScanner scanner;
 
+	/*
+	 * State of the background computation of proposals, accessed only in the
+	 * UI thread.
+	 */
+	private final CaretListener caretListener;
+	private CompletionComputation pending;
+	private ITextViewer pendingViewer;
+	private boolean pendingShown;
+	private CompletionComputation finished;
+
 	public NescCompletionProcessor(NescEditor nescEditor) {
 		this.nescEditor = nescEditor;
 		this.scanner = new DefaultPartitionScanner();
+		this.caretListener = new CaretListener() {
+			@Override
+			public void caretMoved(CaretEvent event) {
+				cancelPending();
+			}
+		};
 	}
 
 	@Override
 	public ICompletionProposal[] computeCompletionProposals(ITextViewer viewer, int offset) {
-		final FileData fileData = FrontendManager.getFileData(getProject(), getCurrentFilePath()).orNull();
+		final String filePath = getCurrentFilePath();
+		final FileData fileData = FrontendManager.getFileData(getProject(), filePath).orNull();
 		/* Hardly possible? situation when FileData is unavailable. */
 		if (fileData == null) {
-			System.out.println("FileData is unavailable");
 			return null;
 		}
-		final List<Token> tokens = this.scanner.getTokens(viewer.getDocument(), offset);
-		List<ICompletionProposal> proposals;
+		final IDocument document = viewer.getDocument();
+		final long documentStamp = getModificationStamp(document);
+
+		/* Proposals are requested again when the background computation is done. */
+		if (finished != null) {
+			final CompletionComputation computation = finished;
+			finished = null;
+			if (computation.getOffset() == offset && computation.getDocumentStamp() == documentStamp) {
+				return toProposals(viewer, computation);
+			}
+		}
+		cancelPending();
+
+		final List<Token> tokens = this.scanner.getTokens(document, offset);
+		final Location location;
 		try {
-			proposals = computeProposals(viewer, offset, tokens, fileData);
+			location = new Location(nescEditor.getFileLocation(), getLine(viewer, offset), getColumn(viewer, offset));
 		} catch (BadLocationException e) {
-			proposals = Collections.emptyList();
+			return NO_COMPLETIONS;
 		}
-		Collections.sort(proposals, COMPARATOR);
-		return proposals.toArray(new ICompletionProposal[proposals.size()]);
+		final List<Pattern> matchingPatterns = getMatchingPatterns(tokens, offset);
+
+		final CompletionComputation computation = new CompletionComputation(filePath, fileData, location, offset,
+				documentStamp, matchingPatterns);
+		final Display display = viewer.getTextWidget().getDisplay();
+		computation.addJobChangeListener(new JobChangeAdapter() {
+			@Override
+			public void done(IJobChangeEvent event) {
+				if (!display.isDisposed()) {
+					display.asyncExec(new Runnable() {
+						@Override
+						public void run() {
+							merge(computation);
+						}
+					});
+				}
+			}
+		});
+		computation.schedule();
+
+		if (computation.await(NescPluginPreferences.getInt(NescPluginPreferences.COMPLETION_TIME_BUDGET))) {
+			return toProposals(viewer, computation);
+		}
+		/* Show what is ready, the rest will be merged in. */
+		final ICompletionProposal[] partialProposals = toProposals(viewer, computation);
+		startPending(viewer, computation, partialProposals.length > 0);
+		return partialProposals;
+	}
+
+	@Override
+	public void assistSessionStarted(ContentAssistEvent event) {
+	}
+
+	@Override
+	public void assistSessionEnded(ContentAssistEvent event) {
+		/*
+		 * The popup with partial proposals was closed. If no proposals were
+		 * shown, the popup may have not been opened at all.
+		 */
+		if (pending != null && pendingShown) {
+			cancelPending();
+		}
+	}
+
+	@Override
+	public void selectionChanged(ICompletionProposal proposal, boolean smartToggle) {
 	}
 
 	@Override
@@ -105,38 +191,92 @@ public class NescCompletionProcessor extends CompletionProcessorBase {
 	}
 
 	/**
-	 * Computes proposals.
+	 * Creates final proposals from the proposals computed so far.
 	 *
 	 * @param viewer
 	 *            text viewer
-	 * @param offset
-	 *            current offset
-	 * @param tokens
-	 *            recognized tokens
-	 * @param fileData
-	 *            current file data
-	 * @return list of proposals
-	 * @throws BadLocationException
+	 * @param computation
+	 *            computation of proposals
+	 * @return proposals, best matches first
+	 */
+	private ICompletionProposal[] toProposals(ITextViewer viewer, CompletionComputation computation) {
+		final Optional<ProposalBuilder> builder = computation.getResult();
+		if (!builder.isPresent()) {
+			return NO_COMPLETIONS;
+		}
+		final List<ICompletionProposal> proposals = new ArrayList<>();
+		addProposals(viewer, proposals, builder.get().getProposals(), builder.get().getTemplates());
+		/* Best matches first. */
+		Collections.sort(proposals, COMPARATOR);
+		return proposals.toArray(new ICompletionProposal[proposals.size()]);
+	}
+
+	/**
+	 * Waits for the rest of proposals of the computation in the background.
+	 * Moving the caret cancels the computation.
+	 *
+	 * @param viewer
+	 *            text viewer
+	 * @param computation
+	 *            computation
+	 * @param shown
+	 *            whether some proposals are already shown
 	 */
-	private List<ICompletionProposal> computeProposals(ITextViewer viewer, int offset, List<Token> tokens,
-			FileData fileData) throws BadLocationException {
-		final List<ICompletionProposal> result = new ArrayList<>();
+	private void startPending(ITextViewer viewer, CompletionComputation computation, boolean shown) {
+		pending = computation;
+		pendingViewer = viewer;
+		pendingShown = shown;
+		viewer.getTextWidget().addCaretListener(caretListener);
+	}
 
-		/* Prepare flattened environment. */
-		final Location location = new Location(nescEditor.getFileLocation(), getLine(viewer, offset), getColumn(viewer,
-				offset));
-		final Environment environment = getEnvironment(fileData.getEnvironment(), location);
-		final Environment flattenedEnvironment = flattenEnvironment(environment);
+	private void cancelPending() {
+		if (pending != null) {
+			pending.cancel();
+			clearPending();
+		}
+	}
 
-		/* Find matching patterns. */
-		final List<Pattern> matchingPatterns = getMatchingPatterns(tokens, offset);
+	private void clearPending() {
+		final StyledText widget = pendingViewer.getTextWidget();
+		if (widget != null && !widget.isDisposed()) {
+			widget.removeCaretListener(caretListener);
+		}
+		pending = null;
+		pendingViewer = null;
+		pendingShown = false;
+	}
 
-		/* Collect proposals. */
-		final ObjectProposalBuilder objectProposalBuilder = new ObjectProposalBuilder(offset, flattenedEnvironment,
-				environment.getScopeType(), matchingPatterns);
-		objectProposalBuilder.buildProposals();
-		addProposals(viewer, result, objectProposalBuilder.getProposals(), objectProposalBuilder.getTemplates());
-		return result;
+	/**
+	 * Shows all proposals of the computation, unless it was cancelled or
+	 * replaced by a newer one in the meantime. Called in the UI thread.
+	 *
+	 * @param computation
+	 *            finished computation
+	 */
+	private void merge(CompletionComputation computation) {
+		if (computation != pending) {
+			return;
+		}
+		final ITextViewer viewer = pendingViewer;
+		clearPending();
+		if (!computation.isComplete()) {
+			return;
+		}
+		finished = computation;
+		/* Request proposals again, they are taken from the finished computation. */
+		if (viewer instanceof ITextOperationTarget) {
+			final ITextOperationTarget target = (ITextOperationTarget) viewer;
+			if (target.canDoOperation(ISourceViewer.CONTENTASSIST_PROPOSALS)) {
+				target.doOperation(ISourceViewer.CONTENTASSIST_PROPOSALS);
+			}
+		}
+	}
+
+	private static long getModificationStamp(IDocument document) {
+		if (document instanceof IDocumentExtension4) {
+			return ((IDocumentExtension4) document).getModificationStamp();
+		}
+		return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
 	}
 
 	/**
@@ -154,14 +294,16 @@ public class NescCompletionProcessor extends CompletionProcessorBase {
 	private void addProposals(ITextViewer viewer, List<ICompletionProposal> result,
 			List<NescCompletionProposal> proposals, List<NescTemplateProposal> templates) {
 		for (NescCompletionProposal p : proposals) {
-			final ICompletionProposal proposal = buildProposal(p.getReplacementString(), p.getOffset(), p.getLength(),
-					p.getImage());
+			final ICompletionProposal proposal = buildProposal(viewer, p.getReplacementString(), p.getOffset(),
+					p.getLength(), p.getImage());
 			result.add(proposal);
 		}
 
 		for (NescTemplateProposal t : templates) {
 			final ICompletionProposal proposal = buildTemplate(viewer, t.getTemplate(), t.getOffset(), t.getLength());
-			result.add(proposal);
+			if (proposal != null) {
+				result.add(proposal);
+			}
 		}
 	}
 
@@ -175,8 +317,15 @@ public class NescCompletionProcessor extends CompletionProcessorBase {
 	 * @return matching patterns
 	 */
 	private List<Pattern> getMatchingPatterns(List<Token> tokens, int offset) {
+		/*
+		 * Patterns keep the data of the match, each computation gets its own
+		 * instances.
+		 */
+		// TODO: for each scope type provide different set of patterns
+		final Pattern[] patterns = new Pattern[] { new VariablePattern(), new CommandEventPattern(),
+				new TaskPattern(), new IdentifierChainPattern() };
 		final List<Pattern> result = new ArrayList<>();
-		for (Pattern pattern : PATTERNS) {
+		for (Pattern pattern : patterns) {
 			if (pattern.match(tokens, offset)) {
 				result.add(pattern);
 			}
@@ -187,6 +336,8 @@ public class NescCompletionProcessor extends CompletionProcessorBase {
 	/**
 	 * Builds a plain completion proposal.
 	 *
+	 * @param viewer
+	 *            current text viewer
 	 * @param replacementString
 	 *            replacement string
 	 * @param offset
@@ -197,9 +348,11 @@ public class NescCompletionProcessor extends CompletionProcessorBase {
 	 *            image
 	 * @return completion proposal
 	 */
-	private ICompletionProposal buildProposal(String replacementString, int offset, int length, Image image) {
-		final ICompletionProposal proposal = new CompletionProposal(replacementString, offset, length,
-				replacementString.length(), image, null, null, null);
+	private ICompletionProposal buildProposal(ITextViewer viewer, String replacementString, int offset, int length,
+			Image image) {
+		final int relevance = getRelevance(viewer, offset, length, replacementString);
+		final ICompletionProposal proposal = new RankedCompletionProposal(replacementString, offset, length, image,
+				relevance);
 		return proposal;
 	}
 
@@ -235,20 +388,35 @@ public class NescCompletionProcessor extends CompletionProcessorBase {
 			// TODO log
 			return null;
 		}
-		return createProposal(template, context, region, 1);
+		final int relevance = getRelevance(viewer, region.getOffset(), region.getLength(), template.getName());
+		return createProposal(template, context, region, relevance);
+	}
+
+	@Override
+	protected ICompletionProposal createProposal(Template template, TemplateContext context, IRegion region,
+			int relevance) {
+		return new RankedTemplateProposal(template, context, region, getImage(template), relevance);
 	}
 
 	/**
-	 * Sorts proposals lexicographically.
-	 *
-	 * @author Grzegorz Kołakowski <gk291583@students.mimuw.edu.pl>
+	 * Rates the match of the name and the text typed before the proposal was
+	 * requested.
 	 *
+	 * @param viewer
+	 *            current text viewer
+	 * @param offset
+	 *            offset of the typed text
+	 * @param length
+	 *            length of the typed text
+	 * @param name
+	 *            name of the proposal
+	 * @return relevance of the proposal
 	 */
-	private static class NescProposalsComparator implements Comparator<ICompletionProposal> {
-
-		@Override
-		public int compare(ICompletionProposal lhs, ICompletionProposal rhs) {
-			return lhs.getDisplayString().compareToIgnoreCase(rhs.getDisplayString());
+	private int getRelevance(ITextViewer viewer, int offset, int length, String name) {
+		try {
+			return Math.max(ProposalMatcher.match(viewer.getDocument().get(offset, length), name), 0);
+		} catch (BadLocationException e) {
+			return 0;
 		}
 	}
 
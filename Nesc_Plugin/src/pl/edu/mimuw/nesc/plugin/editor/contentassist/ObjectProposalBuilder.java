@@ -5,6 +5,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jface.text.templates.Template;
 import org.eclipse.swt.graphics.Image;
 
@@ -18,18 +20,15 @@ import pl.edu.mimuw.nesc.declaration.nesc.InterfaceDeclaration;
 import pl.edu.mimuw.nesc.declaration.nesc.ModuleDeclaration;
 import pl.edu.mimuw.nesc.declaration.nesc.NescDeclaration;
 import pl.edu.mimuw.nesc.declaration.object.ComponentRefDeclaration;
-import pl.edu.mimuw.nesc.declaration.object.ConstantDeclaration;
 import pl.edu.mimuw.nesc.declaration.object.FunctionDeclaration;
-import pl.edu.mimuw.nesc.declaration.object.FunctionDeclaration.FunctionType;
 import pl.edu.mimuw.nesc.declaration.object.InterfaceRefDeclaration;
 import pl.edu.mimuw.nesc.declaration.object.ObjectDeclaration;
-import pl.edu.mimuw.nesc.declaration.object.TypenameDeclaration;
-import pl.edu.mimuw.nesc.declaration.object.VariableDeclaration;
 import pl.edu.mimuw.nesc.environment.Environment;
 import pl.edu.mimuw.nesc.environment.ScopeType;
 import pl.edu.mimuw.nesc.plugin.editor.ImageManager;
+import pl.edu.mimuw.nesc.plugin.editor.contentassist.ScopeSymbolTable.Kind;
+import pl.edu.mimuw.nesc.plugin.editor.contentassist.ScopeSymbolTable.Symbol;
 import pl.edu.mimuw.nesc.plugin.editor.contentassist.pattern.CommandEventPattern;
-import pl.edu.mimuw.nesc.plugin.editor.contentassist.pattern.EmptyPatternVisitor;
 import pl.edu.mimuw.nesc.plugin.editor.contentassist.pattern.IdentifierChainPattern;
 import pl.edu.mimuw.nesc.plugin.editor.contentassist.pattern.Pattern;
 import pl.edu.mimuw.nesc.plugin.editor.contentassist.pattern.TaskPattern;
@@ -47,27 +46,81 @@ import com.google.common.base.Optional;
  */
 class ObjectProposalBuilder extends ProposalBuilder {
 
+	/**
+	 * Kinds of functions proposed as plain function calls.
+	 */
+	private static final Kind[] FUNCTION_KINDS = { Kind.FUNCTION, Kind.COMMAND, Kind.EVENT };
+
 	private final int currentOffset;
-	private final Environment environment;
+	private final ScopeSymbolTable symbolTable;
 	private final ScopeType currentScopeType;
 	private final List<Pattern> matchingPatterns;
+	private final boolean local;
+	private final IProgressMonitor monitor;
 
-	public ObjectProposalBuilder(int currentOffset, Environment environment, ScopeType currentScopeType,
-			List<Pattern> matchingPatterns) {
+	/**
+	 * Creates a builder of proposals.
+	 *
+	 * @param currentOffset
+	 *            current offset
+	 * @param symbolTable
+	 *            symbols of the current scope
+	 * @param matchingPatterns
+	 *            patterns matching the text before the offset
+	 * @param local
+	 *            <code>true</code> if only declarations from function bodies
+	 *            and parameters should be proposed, <code>false</code> if
+	 *            only the other ones; proposals of local declarations can be
+	 *            shown before the others are ready
+	 * @param monitor
+	 *            progress monitor checked for cancellation
+	 */
+	public ObjectProposalBuilder(int currentOffset, ScopeSymbolTable symbolTable, List<Pattern> matchingPatterns,
+			boolean local, IProgressMonitor monitor) {
 		this.currentOffset = currentOffset;
-		this.environment = environment;
-		this.currentScopeType = currentScopeType;
+		this.symbolTable = symbolTable;
+		this.currentScopeType = symbolTable.getScopeType();
 		this.matchingPatterns = matchingPatterns;
+		this.local = local;
+		this.monitor = monitor;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws OperationCanceledException
+	 *             when the monitor is cancelled
+	 */
 	@Override
 	public void buildProposals() {
-		final ObjectDeclarationVisitor visitor = new ObjectDeclarationVisitor();
-		for (Map.Entry<String, ObjectDeclaration> entry : environment.getObjects().getAll()) {
-			entry.getValue().accept(visitor, null);
+		final ProposalPatternVisitor visitor = new ProposalPatternVisitor();
+		for (Pattern pattern : matchingPatterns) {
+			checkCanceled();
+			pattern.accept(visitor, null);
+		}
+	}
+
+	private void checkCanceled() {
+		if (monitor.isCanceled()) {
+			throw new OperationCanceledException();
 		}
 	}
 
+	private List<Symbol> getMatchingSymbols(Kind kind, String typed) {
+		return filter(symbolTable.getMatchingSymbols(kind, typed));
+	}
+
+	private List<Symbol> filter(List<Symbol> symbols) {
+		final List<Symbol> result = new ArrayList<>();
+		for (Symbol symbol : symbols) {
+			final ScopeType scopeType = symbol.getDeclarationScopeType();
+			if ((scopeType == ScopeType.COMPOUND || scopeType == ScopeType.FUNCTION_PARAMETER) == local) {
+				result.add(symbol);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Helper for appending function parameters to proposal template's name and
 	 * pattern.
@@ -144,281 +197,212 @@ class ObjectProposalBuilder extends ProposalBuilder {
 	}
 
 	/**
-	 * Visitors that tries to combine object declaration with matching patterns
-	 * to provide relevant completion proposals.
+	 * Visitor that looks up symbols of the kinds relevant for the matching
+	 * pattern to provide relevant completion proposals.
 	 *
 	 * @author Grzegorz Kołakowski <gk291583@students.mimuw.edu.pl>
 	 *
 	 */
-	private final class ObjectDeclarationVisitor implements ObjectDeclaration.Visitor<Void, Void> {
+	private final class ProposalPatternVisitor implements Pattern.Visitor<Void, Void> {
 
 		@Override
-		public Void visit(final ComponentRefDeclaration declaration, Void arg) {
-			if (currentScopeType != ScopeType.CONFIGURATION_IMPLEMENTATION) {
-				return null;
-			}
-
-			final EmptyPatternVisitor<Void, Void> visitor = new EmptyPatternVisitor<Void, Void>() {
-
-				@Override
-				public Void visit(VariablePattern pattern, Void arg) {
-					/*
-					 * Try to suggest component references.
-					 */
-					final String name = declaration.getName();
-					if (name.startsWith(pattern.getName())) {
-						final Image image = imageForScope(ScopeType.SPECIFICATION);
-						addProposal(name, pattern.getOffset(), pattern.getLength(), image);
-					}
-					return null;
+		public Void visit(VariablePattern pattern, Void arg) {
+			final String prefix = pattern.getName();
+			/*
+			 * Try to suggest component references.
+			 */
+			if (currentScopeType == ScopeType.CONFIGURATION_IMPLEMENTATION) {
+				final Image image = imageForScope(ScopeType.SPECIFICATION);
+				for (Symbol symbol : getMatchingSymbols(Kind.COMPONENT_REF, prefix)) {
+					checkCanceled();
+					addProposal(symbol.getName(), pattern.getOffset(), pattern.getLength(), image);
 				}
+			}
 
-				@Override
-				public Void visit(IdentifierChainPattern pattern, Void arg) {
-					/*
-					 * Try to suggest any of component's member, i.e.
-					 * interfaces, enum constants, typedefs.
-					 *
-					 * There are some slightly problematical cases: C1.Iface1 ->
-					 * C2.Iface2; This is all recognized as identifier chain but
-					 * we take into account only a part of it.
-					 */
-					final List<Token> tokens = pattern.getTokensList();
-					final Optional<Token> lastId = pattern.getLastIdToken();
-
-					final String guessedComponentRefName;
-					final String guessedMemberNamePrefix;
-					if (lastId.isPresent() && tokens.size() >= 3) {
-						guessedComponentRefName = tokens.get(tokens.size() - 3).getValue();
-						guessedMemberNamePrefix = lastId.get().getValue();
-					} else if (!lastId.isPresent() && tokens.size() >= 2) {
-						guessedComponentRefName = tokens.get(tokens.size() - 2).getValue();
-						guessedMemberNamePrefix = "";
-					} else {
-						return null;
-					}
-
-					/* Check if name of component reference matches. */
-					final String componentRefName = declaration.getName();
-					if (!componentRefName.equals(guessedComponentRefName)) {
-						return null;
-					}
-
-					final Optional<? extends NescDeclaration> componentDeclaration =
-							declaration.getComponentDeclaration();
-					/* Check if component exists. */
-					if (!componentDeclaration.isPresent()) {
-						return null;
-					}
-
-					/* Extract component's specification environment. */
-					final Environment specificationEnvironment = componentDeclaration.get().accept(
-							new NescDeclaration.Visitor<Environment, Void>() {
-								@Override
-								public Environment visit(ConfigurationDeclaration configurationDecl, Void arg) {
-									return configurationDecl.getAstComponent().getSpecificationEnvironment();
-								}
-
-								@Override
-								public Environment visit(InterfaceDeclaration interfaceDecl, Void arg) {
-									// TODO: error
-									return null;
-								}
-
-								@Override
-								public Environment visit(ModuleDeclaration moduleDecl, Void arg) {
-									return moduleDecl.getAstComponent().getSpecificationEnvironment();
-								}
-							}, null);
-
-					if (specificationEnvironment == null) {
-						return null;
-					}
-
-					/* Iterate over all declarations in component specification. */
-					final Set<Map.Entry<String, ObjectDeclaration>> specificationEntries = specificationEnvironment
-							.getObjects().getAll();
-					final Image image = imageForScope(ScopeType.SPECIFICATION);
-					for (Map.Entry<String, ObjectDeclaration> entry : specificationEntries) {
-						final String name = entry.getKey();
-						if (name.startsWith(guessedMemberNamePrefix)) {
-							addProposal(name, pattern.getOffset(), pattern.getLength(), image);
-						}
-					}
+			// TODO: determine allowed scopes
+			for (Symbol symbol : getMatchingSymbols(Kind.VARIABLE, prefix)) {
+				checkCanceled();
+				final Image image = imageForScope(symbol.getDeclarationScopeType());
+				addProposal(symbol.getName(), pattern.getOffset(), pattern.getLength(), image);
+			}
 
-					return null;
+			if (currentScopeType != ScopeType.COMPOUND) {
+				return null;
+			}
+			/* Tasks are handled somewhere else. */
+			// TODO skip function with present interface
+			for (Kind kind : FUNCTION_KINDS) {
+				checkCanceled();
+				for (Symbol symbol : getMatchingSymbols(kind, prefix)) {
+					checkCanceled();
+					final Template template = buildFunctionTemplate((FunctionDeclaration) symbol.getDeclaration(),
+							symbol.getDeclarationScopeType());
+					addNescTemplateProposal(template, currentOffset, pattern.getLength());
 				}
-			};
-			iteratePatterns(visitor);
+			}
 			return null;
 		}
 
 		@Override
-		public Void visit(final ConstantDeclaration declaration, Void arg) {
-			final ScopeType declarationScopeType = declaration.getEnvironment().getScopeType();
-			// TODO: determine allowed scopes
-			final EmptyPatternVisitor<Void, Void> visitor = new EmptyPatternVisitor<Void, Void>() {
-
-				@Override
-				public Void visit(VariablePattern pattern, Void arg) {
-					final String name = declaration.getName();
-					if (name.startsWith(pattern.getName())) {
-						final Image image = imageForScope(declarationScopeType);
-						addProposal(name, pattern.getOffset(), pattern.getLength(), image);
-					}
-					return null;
-				}
-			};
-			iteratePatterns(visitor);
+		public Void visit(TaskPattern pattern, Void arg) {
+			if (currentScopeType != ScopeType.COMPOUND) {
+				return null;
+			}
+			for (Symbol symbol : getMatchingSymbols(Kind.TASK, pattern.getName().or(""))) {
+				checkCanceled();
+				final Template template = buildTaskTemplate((FunctionDeclaration) symbol.getDeclaration(),
+						symbol.getDeclarationScopeType());
+				addNescTemplateProposal(template, currentOffset, pattern.getLength());
+			}
 			return null;
 		}
 
 		@Override
-		public Void visit(final FunctionDeclaration declaration, Void arg) {
-			final EmptyPatternVisitor<Void, Void> visitor = new EmptyPatternVisitor<Void, Void>() {
-				@Override
-				public Void visit(VariablePattern pattern, Void arg) {
-					if (currentScopeType != ScopeType.COMPOUND) {
-						return null;
-					}
-					/* Tasks are handled somewhere else. */
-					if (declaration.getFunctionType() == FunctionType.TASK) {
-						return null;
-					}
-
-					final String name = declaration.getName();
-					// TODO skip function with present interface
-					if (name.startsWith(pattern.getName())) {
-						final Template template = buildFunctionTemplate(declaration);
-						addNescTemplateProposal(template, currentOffset, pattern.getLength());
-					}
-					return null;
-				}
-
-				@Override
-				public Void visit(TaskPattern pattern, Void arg) {
-					if (currentScopeType != ScopeType.COMPOUND) {
-						return null;
-					}
-					if (declaration.getFunctionType() != FunctionType.TASK) {
-						return null;
-					}
-					final String name = declaration.getName();
-					if (!pattern.getName().isPresent() || name.startsWith(pattern.getName().get())) {
-						final Template template = buildTaskTemplate(declaration);
-						addNescTemplateProposal(template, currentOffset, pattern.getLength());
-					}
-					return null;
-				}
-			};
-			iteratePatterns(visitor);
+		public Void visit(CommandEventPattern pattern, Void arg) {
+			/*
+			 * Commands and events can be proposed only inside
+			 * functions.
+			 */
+			if (currentScopeType != ScopeType.COMPOUND) {
+				return null;
+			}
+			/* Check if interface reference name matches. */
+			final String interfacePrefix = pattern.getInterfaceName().or("");
+			for (Symbol symbol : getMatchingSymbols(Kind.INTERFACE_REF, interfacePrefix)) {
+				checkCanceled();
+				proposeCommandsAndEvents((InterfaceRefDeclaration) symbol.getDeclaration(), pattern);
+			}
 			return null;
 		}
 
 		@Override
-		public Void visit(final InterfaceRefDeclaration declaration, Void arg) {
+		public Void visit(IdentifierChainPattern pattern, Void arg) {
+			if (currentScopeType != ScopeType.CONFIGURATION_IMPLEMENTATION) {
+				return null;
+			}
 			/*
-			 * Commands and events can be proposed only inside
-			 * functions.
+			 * Try to suggest any of component's member, i.e.
+			 * interfaces, enum constants, typedefs.
+			 *
+			 * There are some slightly problematical cases: C1.Iface1 ->
+			 * C2.Iface2; This is all recognized as identifier chain but
+			 * we take into account only a part of it.
 			 */
-			if (currentScopeType != ScopeType.COMPOUND) {
+			final List<Token> tokens = pattern.getTokensList();
+			final Optional<Token> lastId = pattern.getLastIdToken();
+
+			final String guessedComponentRefName;
+			final String guessedMemberNamePrefix;
+			if (lastId.isPresent() && tokens.size() >= 3) {
+				guessedComponentRefName = tokens.get(tokens.size() - 3).getValue();
+				guessedMemberNamePrefix = lastId.get().getValue();
+			} else if (!lastId.isPresent() && tokens.size() >= 2) {
+				guessedComponentRefName = tokens.get(tokens.size() - 2).getValue();
+				guessedMemberNamePrefix = "";
+			} else {
 				return null;
 			}
 
-			final EmptyPatternVisitor<Void, Void> visitor = new EmptyPatternVisitor<Void, Void>() {
-				@Override
-				public Void visit(CommandEventPattern pattern, Void arg) {
-					/*
-					 * Probably due to syntax errors, ast tree for component was
-					 * not built. Skip.
-					 */
-					if (declaration.getIfaceDeclaration() == null) {
-						return null;
-					}
-					/* Probably there was mistake in interface name. */
-					if (!declaration.getIfaceDeclaration().isPresent()) {
-						return null;
-					}
-					final InterfaceDeclaration ifaceDeclaration = declaration.getIfaceDeclaration().get();
-					final boolean isProvides = declaration.isProvides();
-
-					/* Check if interface reference name matches. */
-					final String refName = declaration.getName();
-					if (pattern.getInterfaceName().isPresent() && !refName.startsWith(pattern.getInterfaceName().get())) {
-						return null;
-					}
-
-					/* Find all matching event/commands. */
-					final Environment ifaceEnvironment = ifaceDeclaration.getDeclarationEnvironment();
-					final List<FunctionDeclaration> allowedFunctions = new ArrayList<>();
-
-					for (Map.Entry<String, ObjectDeclaration> entry : ifaceEnvironment.getObjects().getAll()) {
-						if (!(entry.getValue() instanceof FunctionDeclaration)) {
-							continue;
-						}
+			/* Check if name of component reference matches. */
+			for (Symbol symbol : filter(symbolTable.getSymbols(Kind.COMPONENT_REF, guessedComponentRefName))) {
+				checkCanceled();
+				if (symbol.getName().equals(guessedComponentRefName)) {
+					proposeComponentMembers((ComponentRefDeclaration) symbol.getDeclaration(), pattern,
+							guessedMemberNamePrefix);
+				}
+			}
+			return null;
+		}
 
-						final FunctionDeclaration funDeclaration = (FunctionDeclaration) entry.getValue();
-						final String funName = funDeclaration.getFunctionName();
+		private void proposeComponentMembers(ComponentRefDeclaration declaration, IdentifierChainPattern pattern,
+				String memberNamePrefix) {
+			final Optional<? extends NescDeclaration> componentDeclaration = declaration.getComponentDeclaration();
+			/* Check if component exists. */
+			if (!componentDeclaration.isPresent()) {
+				return;
+			}
 
-						final boolean funNameMatches = (!pattern.getFunctionName().isPresent())
-								|| (pattern.getFunctionName().isPresent() && funName.startsWith(pattern
-										.getFunctionName().get()));
-						final boolean isAllowedType = isAllowedFunctionType(funDeclaration.getFunctionType(),
-								pattern.getType(), isProvides);
+			/* Extract component's specification environment. */
+			final Environment specificationEnvironment = componentDeclaration.get().accept(
+					new NescDeclaration.Visitor<Environment, Void>() {
+						@Override
+						public Environment visit(ConfigurationDeclaration configurationDecl, Void arg) {
+							return configurationDecl.getAstComponent().getSpecificationEnvironment();
+						}
 
-						if (funNameMatches && isAllowedType) {
-							allowedFunctions.add(funDeclaration);
+						@Override
+						public Environment visit(InterfaceDeclaration interfaceDecl, Void arg) {
+							// TODO: error
+							return null;
 						}
-					}
 
-					final List<Template> templates = buildTemplatesFromInterfaceReference(ifaceDeclaration,
-							declaration, allowedFunctions);
+						@Override
+						public Environment visit(ModuleDeclaration moduleDecl, Void arg) {
+							return moduleDecl.getAstComponent().getSpecificationEnvironment();
+						}
+					}, null);
 
-					for (Template template : templates) {
-						addNescTemplateProposal(template, currentOffset, pattern.getLength());
-					}
-					return null;
+			if (specificationEnvironment == null) {
+				return;
+			}
+
+			/* Iterate over all declarations in component specification. */
+			final Set<Map.Entry<String, ObjectDeclaration>> specificationEntries = specificationEnvironment
+					.getObjects().getAll();
+			final Image image = imageForScope(ScopeType.SPECIFICATION);
+			for (Map.Entry<String, ObjectDeclaration> entry : specificationEntries) {
+				checkCanceled();
+				final String name = entry.getKey();
+				if (ProposalMatcher.matches(memberNamePrefix, name)) {
+					addProposal(name, pattern.getOffset(), pattern.getLength(), image);
 				}
-			};
-			iteratePatterns(visitor);
-			return null;
+			}
 		}
 
-		@Override
-		public Void visit(TypenameDeclaration declaration, Void arg) {
-			// TODO
-			return null;
-		}
+		private void proposeCommandsAndEvents(InterfaceRefDeclaration declaration, CommandEventPattern pattern) {
+			/*
+			 * Probably due to syntax errors, ast tree for component was
+			 * not built. Skip.
+			 */
+			if (declaration.getIfaceDeclaration() == null) {
+				return;
+			}
+			/* Probably there was mistake in interface name. */
+			if (!declaration.getIfaceDeclaration().isPresent()) {
+				return;
+			}
+			final InterfaceDeclaration ifaceDeclaration = declaration.getIfaceDeclaration().get();
+			final boolean isProvides = declaration.isProvides();
 
-		@Override
-		public Void visit(final VariableDeclaration declaration, Void arg) {
-			final ScopeType declarationScopeType = declaration.getEnvironment().getScopeType();
-			// TODO: determine allowed scopes
-			final EmptyPatternVisitor<Void, Void> visitor = new EmptyPatternVisitor<Void, Void>() {
-
-				@Override
-				public Void visit(VariablePattern pattern, Void arg) {
-					final String name = declaration.getName();
-					if (name.startsWith(pattern.getName())) {
-						final Image image = imageForScope(declarationScopeType);
-						addProposal(name, pattern.getOffset(), pattern.getLength(), image);
-					}
-					return null;
+			/* Find all matching event/commands. */
+			final Environment ifaceEnvironment = ifaceDeclaration.getDeclarationEnvironment();
+			final List<FunctionDeclaration> allowedFunctions = new ArrayList<>();
+
+			for (Map.Entry<String, ObjectDeclaration> entry : ifaceEnvironment.getObjects().getAll()) {
+				checkCanceled();
+				if (!(entry.getValue() instanceof FunctionDeclaration)) {
+					continue;
 				}
-			};
-			iteratePatterns(visitor);
-			return null;
-		}
 
-		/**
-		 * Iterates over matching patterns and applies given visitor on them.
-		 *
-		 * @param visitor
-		 *            visitor to be executed
-		 */
-		private <A> void iteratePatterns(Pattern.Visitor<Void, A> visitor) {
-			for (Pattern pattern : matchingPatterns) {
-				pattern.accept(visitor, null);
+				final FunctionDeclaration funDeclaration = (FunctionDeclaration) entry.getValue();
+				final String funName = funDeclaration.getFunctionName();
+
+				final boolean funNameMatches = (!pattern.getFunctionName().isPresent())
+						|| (pattern.getFunctionName().isPresent() && ProposalMatcher.matches(pattern
+								.getFunctionName().get(), funName));
+				final boolean isAllowedType = isAllowedFunctionType(funDeclaration.getFunctionType(),
+						pattern.getType(), isProvides);
+
+				if (funNameMatches && isAllowedType) {
+					allowedFunctions.add(funDeclaration);
+				}
+			}
+
+			final List<Template> templates = buildTemplatesFromInterfaceReference(ifaceDeclaration, declaration,
+					allowedFunctions);
+
+			for (Template template : templates) {
+				addNescTemplateProposal(template, currentOffset, pattern.getLength());
 			}
 		}
 
@@ -446,10 +430,12 @@ class ObjectProposalBuilder extends ProposalBuilder {
 		 *
 		 * @param declaration
 		 *            function declaration
+		 * @param declarationScopeType
+		 *            type of the scope of the declaration
 		 * @return function proposal template
 		 */
-		private Template buildFunctionTemplate(FunctionDeclaration declaration) {
-			return buildFunctionTemplate("", declaration);
+		private Template buildFunctionTemplate(FunctionDeclaration declaration, ScopeType declarationScopeType) {
+			return buildFunctionTemplate("", declaration, declarationScopeType);
 		}
 
 		/**
@@ -457,10 +443,12 @@ class ObjectProposalBuilder extends ProposalBuilder {
 		 *
 		 * @param declaration
 		 *            task declaration
+		 * @param declarationScopeType
+		 *            type of the scope of the declaration
 		 * @return task proposal template
 		 */
-		private Template buildTaskTemplate(FunctionDeclaration declaration) {
-			return buildFunctionTemplate("post ", declaration);
+		private Template buildTaskTemplate(FunctionDeclaration declaration, ScopeType declarationScopeType) {
+			return buildFunctionTemplate("post ", declaration, declarationScopeType);
 		}
 
 		/**
@@ -470,9 +458,12 @@ class ObjectProposalBuilder extends ProposalBuilder {
 		 *            prefix of proposal name and pattern
 		 * @param declaration
 		 *            function declaration
+		 * @param declarationScopeType
+		 *            type of the scope of the declaration
 		 * @return function proposal template
 		 */
-		private Template buildFunctionTemplate(String prefix, FunctionDeclaration declaration) {
+		private Template buildFunctionTemplate(String prefix, FunctionDeclaration declaration,
+				ScopeType declarationScopeType) {
 			final String name = declaration.getName();
 			final StringBuilder nameBuilder = new StringBuilder();
 			final String templateDesc = "";
@@ -492,7 +483,7 @@ class ObjectProposalBuilder extends ProposalBuilder {
 			nameBuilder.append(')');
 			patternBuilder.append(")${cursor}");
 
-			final Image image = imageForScope(declaration.getEnvironment().getScopeType());
+			final Image image = imageForScope(declarationScopeType);
 			return buildTemplate(nameBuilder.toString(), templateDesc, contextTypeId, patternBuilder.toString(), image);
 		}
 
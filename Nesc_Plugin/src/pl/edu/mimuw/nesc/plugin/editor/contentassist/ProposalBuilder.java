@@ -40,6 +40,18 @@ public abstract class ProposalBuilder {
 		return templates;
 	}
 
+	/**
+	 * Adds the proposals built by another builder to the proposals of this
+	 * builder.
+	 *
+	 * @param builder
+	 *            builder whose proposals are added
+	 */
+	public void addAll(ProposalBuilder builder) {
+		this.proposals.addAll(builder.proposals);
+		this.templates.addAll(builder.templates);
+	}
+
 	protected NescCompletionProposal addProposal(String replacementString, int offset, int length, Image image) {
 		final NescCompletionProposal proposal = new NescCompletionProposal(replacementString, offset, length, image);
 		this.proposals.add(proposal);
@@ -0,0 +1,107 @@
+package pl.edu.mimuw.nesc.plugin.editor.contentassist;
+
+import java.util.Locale;
+
+/**
+ * <p>
+ * Matches names of proposals against the text typed by the user and rates
+ * the quality of matches.
+ * </p>
+ * <p>
+ * Besides prefixes, names are matched by camel case, e.g. <code>sMD</code>
+ * matches <code>sendMsgDone</code> and <code>AMS</code> matches
+ * <code>AMSend</code>, and by substrings, ignoring case.
+ * </p>
+ */
+public final class ProposalMatcher {
+
+	public static final int NO_MATCH = -1;
+	public static final int SUBSTRING = 40;
+	public static final int CAMEL_CASE = 60;
+	public static final int PREFIX_IGNORE_CASE = 80;
+	public static final int PREFIX = 90;
+	public static final int EXACT = 100;
+
+	/**
+	 * Rates how well the name matches the typed text.
+	 *
+	 * @param typed
+	 *            text typed by the user
+	 * @param name
+	 *            name of a proposal
+	 * @return relevance of the match, the greater the better, or
+	 *         {@link #NO_MATCH}
+	 */
+	public static int match(String typed, String name) {
+		if (name.equals(typed)) {
+			return EXACT;
+		}
+		if (name.startsWith(typed)) {
+			return PREFIX;
+		}
+		final String lowerTyped = toLowerCase(typed);
+		final String lowerName = toLowerCase(name);
+		if (lowerName.startsWith(lowerTyped)) {
+			return PREFIX_IGNORE_CASE;
+		}
+		if (matchesCamelCase(typed, name)) {
+			return CAMEL_CASE;
+		}
+		if (lowerName.contains(lowerTyped)) {
+			return SUBSTRING;
+		}
+		return NO_MATCH;
+	}
+
+	/**
+	 * Checks if the name matches the typed text in any way.
+	 *
+	 * @param typed
+	 *            text typed by the user
+	 * @param name
+	 *            name of a proposal
+	 * @return <code>true</code> if the name matches
+	 */
+	public static boolean matches(String typed, String name) {
+		return match(typed, name) != NO_MATCH;
+	}
+
+	static String toLowerCase(String text) {
+		return text.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Checks if the typed text is a camel case abbreviation of the name. The
+	 * first characters must be equal ignoring case. Each following upper case
+	 * character must match the beginning of a further word of the name, other
+	 * characters must directly follow the previously matched character.
+	 */
+	private static boolean matchesCamelCase(String typed, String name) {
+		if (typed.isEmpty() || name.isEmpty()
+				|| Character.toLowerCase(typed.charAt(0)) != Character.toLowerCase(name.charAt(0))) {
+			return false;
+		}
+		int position = 1;
+		for (int i = 1; i < typed.length(); ++i) {
+			final char c = typed.charAt(i);
+			if (Character.isUpperCase(c)) {
+				while (position < name.length() && !(isWordStart(name, position) && name.charAt(position) == c)) {
+					++position;
+				}
+			}
+			if (position == name.length() || name.charAt(position) != c) {
+				return false;
+			}
+			++position;
+		}
+		return true;
+	}
+
+	private static boolean isWordStart(String name, int position) {
+		final char c = name.charAt(position);
+		return Character.isUpperCase(c) || (name.charAt(position - 1) == '_' && c != '_');
+	}
+
+	private ProposalMatcher() {
+	}
+}
@@ -0,0 +1,29 @@
+package pl.edu.mimuw.nesc.plugin.editor.contentassist;
+
+import java.util.Comparator;
+
+import org.eclipse.jface.text.contentassist.ICompletionProposal;
+import org.eclipse.jface.text.contentassist.ICompletionProposalSorter;
+
+/**
+ * Sorts proposals by the quality of the match and then lexicographically.
+ * Proposals other than {@link RankedProposal} are sorted lexicographically.
+ */
+public class ProposalSorter implements ICompletionProposalSorter, Comparator<ICompletionProposal> {
+
+	@Override
+	public int compare(ICompletionProposal lhs, ICompletionProposal rhs) {
+		final int result = Integer.compare(getRelevance(rhs), getRelevance(lhs));
+		if (result != 0) {
+			return result;
+		}
+		return lhs.getDisplayString().compareToIgnoreCase(rhs.getDisplayString());
+	}
+
+	private static int getRelevance(ICompletionProposal proposal) {
+		if (proposal instanceof RankedProposal) {
+			return ((RankedProposal) proposal).getRelevance();
+		}
+		return 0;
+	}
+}
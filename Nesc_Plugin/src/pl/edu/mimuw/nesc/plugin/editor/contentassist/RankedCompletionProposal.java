@@ -0,0 +1,114 @@
+package pl.edu.mimuw.nesc.plugin.editor.contentassist;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.ITextViewer;
+import org.eclipse.jface.text.contentassist.ICompletionProposalExtension2;
+import org.eclipse.jface.text.contentassist.IContextInformation;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.Point;
+
+/**
+ * <p>
+ * Completion proposal that replaces the text typed since the proposal was
+ * computed with the replacement string.
+ * </p>
+ * <p>
+ * While the user keeps typing, the proposal is validated against the text
+ * typed so far, so the list of proposals is narrowed without computing it
+ * again.
+ * </p>
+ */
+public class RankedCompletionProposal implements RankedProposal, ICompletionProposalExtension2 {
+
+	private final String replacementString;
+	private final int replacementOffset;
+	private final int replacementLength;
+	private final Image image;
+
+	private int relevance;
+
+	public RankedCompletionProposal(String replacementString, int replacementOffset, int replacementLength,
+			Image image, int relevance) {
+		this.replacementString = replacementString;
+		this.replacementOffset = replacementOffset;
+		this.replacementLength = replacementLength;
+		this.image = image;
+		this.relevance = relevance;
+	}
+
+	@Override
+	public void apply(IDocument document) {
+		try {
+			document.replace(replacementOffset, replacementLength, replacementString);
+		} catch (BadLocationException e) {
+			// ignore
+		}
+	}
+
+	@Override
+	public void apply(ITextViewer viewer, char trigger, int stateMask, int offset) {
+		try {
+			viewer.getDocument().replace(replacementOffset, offset - replacementOffset, replacementString);
+		} catch (BadLocationException e) {
+			// ignore
+		}
+	}
+
+	@Override
+	public boolean validate(IDocument document, int offset, DocumentEvent event) {
+		if (offset < replacementOffset) {
+			return false;
+		}
+		try {
+			final String typed = document.get(replacementOffset, offset - replacementOffset);
+			final int newRelevance = ProposalMatcher.match(typed, replacementString);
+			if (newRelevance == ProposalMatcher.NO_MATCH) {
+				return false;
+			}
+			relevance = newRelevance;
+			return true;
+		} catch (BadLocationException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public int getRelevance() {
+		return relevance;
+	}
+
+	@Override
+	public Point getSelection(IDocument document) {
+		return new Point(replacementOffset + replacementString.length(), 0);
+	}
+
+	@Override
+	public String getAdditionalProposalInfo() {
+		return null;
+	}
+
+	@Override
+	public String getDisplayString() {
+		return replacementString;
+	}
+
+	@Override
+	public Image getImage() {
+		return image;
+	}
+
+	@Override
+	public IContextInformation getContextInformation() {
+		return null;
+	}
+
+	@Override
+	public void selected(ITextViewer viewer, boolean smartToggle) {
+	}
+
+	@Override
+	public void unselected(ITextViewer viewer) {
+	}
+}
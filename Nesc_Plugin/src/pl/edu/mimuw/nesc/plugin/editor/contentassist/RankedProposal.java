@@ -0,0 +1,18 @@
+package pl.edu.mimuw.nesc.plugin.editor.contentassist;
+
+import org.eclipse.jface.text.contentassist.ICompletionProposal;
+
+/**
+ * Completion proposal rated by the quality of the match of its name and the
+ * text typed by the user. The rate is updated whenever the proposal is
+ * validated against the document.
+ */
+public interface RankedProposal extends ICompletionProposal {
+
+	/**
+	 * Gets the relevance of the proposal.
+	 *
+	 * @return relevance, see {@link ProposalMatcher}
+	 */
+	int getRelevance();
+}
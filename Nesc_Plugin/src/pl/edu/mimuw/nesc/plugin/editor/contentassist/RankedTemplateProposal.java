@@ -0,0 +1,49 @@
+package pl.edu.mimuw.nesc.plugin.editor.contentassist;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.templates.Template;
+import org.eclipse.jface.text.templates.TemplateContext;
+import org.eclipse.jface.text.templates.TemplateProposal;
+import org.eclipse.swt.graphics.Image;
+
+/**
+ * Template proposal validated with {@link ProposalMatcher} instead of plain
+ * prefix matching of the name of the template.
+ */
+public class RankedTemplateProposal extends TemplateProposal implements RankedProposal {
+
+	private int relevance;
+
+	public RankedTemplateProposal(Template template, TemplateContext context, IRegion region, Image image,
+			int relevance) {
+		super(template, context, region, image, relevance);
+		this.relevance = relevance;
+	}
+
+	@Override
+	public boolean validate(IDocument document, int offset, DocumentEvent event) {
+		final int replaceOffset = getReplaceOffset();
+		if (offset < replaceOffset) {
+			return false;
+		}
+		try {
+			final String typed = document.get(replaceOffset, offset - replaceOffset);
+			final int newRelevance = ProposalMatcher.match(typed, getTemplate().getName());
+			if (newRelevance == ProposalMatcher.NO_MATCH) {
+				return false;
+			}
+			relevance = newRelevance;
+			return true;
+		} catch (BadLocationException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public int getRelevance() {
+		return relevance;
+	}
+}
@@ -0,0 +1,492 @@
+package pl.edu.mimuw.nesc.plugin.editor.contentassist;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import pl.edu.mimuw.nesc.FileData;
+import pl.edu.mimuw.nesc.declaration.object.ComponentRefDeclaration;
+import pl.edu.mimuw.nesc.declaration.object.ConstantDeclaration;
+import pl.edu.mimuw.nesc.declaration.object.FunctionDeclaration;
+import pl.edu.mimuw.nesc.declaration.object.FunctionDeclaration.FunctionType;
+import pl.edu.mimuw.nesc.declaration.object.InterfaceRefDeclaration;
+import pl.edu.mimuw.nesc.declaration.object.ObjectDeclaration;
+import pl.edu.mimuw.nesc.declaration.object.TypenameDeclaration;
+import pl.edu.mimuw.nesc.declaration.object.VariableDeclaration;
+import pl.edu.mimuw.nesc.environment.Environment;
+import pl.edu.mimuw.nesc.environment.ScopeType;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * <p>
+ * Immutable, flattened view of the object declarations visible in a scope,
+ * i.e. declared in the scope or in any of its ancestors. Declarations of inner
+ * scopes shadow declarations of the same name in outer scopes.
+ * </p>
+ * <p>
+ * Each symbol remembers the type of the scope it was declared in, so the
+ * declarations of the frontend are never modified.
+ * </p>
+ * <p>
+ * Symbols are partitioned by {@link Kind}. Each partition is sorted by names
+ * ignoring case and searched by prefix with binary search, so the cost of a
+ * lookup depends on the number of matching symbols, not on the size of the
+ * table.
+ * </p>
+ * <p>
+ * Tables are cached per scope and per version of the data of a file, so
+ * subsequent completions in the same scope reuse the table until the file is
+ * parsed again.
+ * </p>
+ */
+public final class ScopeSymbolTable {
+
+	private static final int CACHE_SIZE = 32;
+
+	/* Guarded by itself. Keys are file paths. */
+	private static final Map<String, FileTables> CACHE = new LinkedHashMap<String, FileTables>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, FileTables> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private static final SymbolComparator COMPARATOR = new SymbolComparator();
+	private static final KindVisitor KIND_VISITOR = new KindVisitor();
+
+	private final ScopeType scopeType;
+	private final ImmutableList<Symbol> symbols;
+	private final Map<Kind, Partition> partitions;
+
+	/**
+	 * Gets the table of the scope from the given data of a file. The table is
+	 * built only if there is no table of the scope for this data yet.
+	 *
+	 * @param filePath
+	 *            path of the file
+	 * @param fileData
+	 *            current data of the file
+	 * @param scope
+	 *            scope from the environment of the data
+	 * @return symbol table
+	 */
+	public static ScopeSymbolTable get(String filePath, FileData fileData, Environment scope) {
+		Preconditions.checkNotNull(filePath, "file path cannot be null");
+		Preconditions.checkNotNull(fileData, "file data cannot be null");
+		Preconditions.checkNotNull(scope, "scope cannot be null");
+
+		final FileTables tables;
+		synchronized (CACHE) {
+			final FileTables cached = CACHE.get(filePath);
+			/* New data means the file was parsed again. */
+			if (cached != null && cached.fileData == fileData) {
+				tables = cached;
+			} else {
+				tables = new FileTables(fileData);
+				CACHE.put(filePath, tables);
+			}
+		}
+		return tables.get(scope);
+	}
+
+	/**
+	 * Builds the table of the scope.
+	 *
+	 * @param scope
+	 *            scope
+	 * @return symbol table
+	 */
+	private static ScopeSymbolTable build(Environment scope) {
+		final Map<String, Symbol> visible = new LinkedHashMap<>();
+		Optional<Environment> current = Optional.of(scope);
+		while (current.isPresent()) {
+			final Environment environment = current.get();
+			for (Map.Entry<String, ObjectDeclaration> entry : environment.getObjects().getAll()) {
+				/* Declarations from inner scopes are already there. */
+				if (!visible.containsKey(entry.getKey())) {
+					visible.put(entry.getKey(),
+							new Symbol(entry.getKey(), entry.getValue(), environment.getScopeType()));
+				}
+			}
+			// TODO: tags
+			current = environment.getParent();
+		}
+		return new ScopeSymbolTable(scope.getScopeType(), ImmutableList.copyOf(visible.values()));
+	}
+
+	private ScopeSymbolTable(ScopeType scopeType, ImmutableList<Symbol> symbols) {
+		this.scopeType = scopeType;
+		this.symbols = symbols;
+		this.partitions = buildPartitions(symbols);
+	}
+
+	private static Map<Kind, Partition> buildPartitions(List<Symbol> symbols) {
+		final Map<Kind, List<Symbol>> kindSymbols = new EnumMap<>(Kind.class);
+		for (Kind kind : Kind.values()) {
+			kindSymbols.put(kind, new ArrayList<Symbol>());
+		}
+		for (Symbol symbol : symbols) {
+			final Kind kind = symbol.getDeclaration().accept(KIND_VISITOR, null);
+			/* Type names are not proposed. */
+			if (kind != null) {
+				kindSymbols.get(kind).add(symbol);
+			}
+		}
+		final Map<Kind, Partition> result = new EnumMap<>(Kind.class);
+		for (Map.Entry<Kind, List<Symbol>> entry : kindSymbols.entrySet()) {
+			result.put(entry.getKey(), new Partition(entry.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the type of the scope the table was built for.
+	 *
+	 * @return scope type
+	 */
+	public ScopeType getScopeType() {
+		return scopeType;
+	}
+
+	/**
+	 * Gets all visible symbols, from the innermost scope outwards.
+	 *
+	 * @return visible symbols
+	 */
+	public ImmutableList<Symbol> getSymbols() {
+		return symbols;
+	}
+
+	/**
+	 * Gets the visible symbols of given kind whose names start with the given
+	 * prefix, ignoring case.
+	 *
+	 * @param kind
+	 *            kind of symbols
+	 * @param prefix
+	 *            prefix of names
+	 * @return matching symbols sorted by names, ignoring case
+	 */
+	public List<Symbol> getSymbols(Kind kind, String prefix) {
+		Preconditions.checkNotNull(kind, "kind cannot be null");
+		Preconditions.checkNotNull(prefix, "prefix cannot be null");
+		return partitions.get(kind).find(prefix);
+	}
+
+	/**
+	 * Gets the visible symbols of given kind whose names match the typed text
+	 * by prefix, camel case or substring, see {@link ProposalMatcher}.
+	 *
+	 * @param kind
+	 *            kind of symbols
+	 * @param typed
+	 *            text typed by the user
+	 * @return matching symbols sorted by names, ignoring case
+	 */
+	public List<Symbol> getMatchingSymbols(Kind kind, String typed) {
+		Preconditions.checkNotNull(kind, "kind cannot be null");
+		Preconditions.checkNotNull(typed, "typed text cannot be null");
+		return partitions.get(kind).findMatching(typed);
+	}
+
+	private static String toKey(String name) {
+		return ProposalMatcher.toLowerCase(name);
+	}
+
+	/**
+	 * Kinds of symbols that are proposed separately.
+	 */
+	public static enum Kind {
+		/** Variables and enumeration constants. */
+		VARIABLE,
+		/** Functions other than tasks, commands and events. */
+		FUNCTION,
+		TASK,
+		COMMAND,
+		EVENT,
+		COMPONENT_REF,
+		/** Interface references, which provide commands and events. */
+		INTERFACE_REF,
+	}
+
+	/**
+	 * Declaration visible in a scope.
+	 */
+	public static final class Symbol {
+
+		private final String name;
+		private final ObjectDeclaration declaration;
+		private final ScopeType declarationScopeType;
+
+		private Symbol(String name, ObjectDeclaration declaration, ScopeType declarationScopeType) {
+			this.name = name;
+			this.declaration = declaration;
+			this.declarationScopeType = declarationScopeType;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public ObjectDeclaration getDeclaration() {
+			return declaration;
+		}
+
+		/**
+		 * Gets the type of the scope the symbol is declared in.
+		 *
+		 * @return scope type
+		 */
+		public ScopeType getDeclarationScopeType() {
+			return declarationScopeType;
+		}
+	}
+
+	/**
+	 * Symbols of one kind sorted by names, ignoring case.
+	 */
+	private static final class Partition {
+
+		private final String[] keys;
+		private final ImmutableList<Symbol> symbols;
+		/* Built on the first substring lookup. */
+		private volatile SuffixIndex suffixIndex;
+
+		Partition(List<Symbol> symbols) {
+			final List<Symbol> sorted = new ArrayList<>(symbols);
+			Collections.sort(sorted, COMPARATOR);
+			this.symbols = ImmutableList.copyOf(sorted);
+			this.keys = new String[sorted.size()];
+			for (int i = 0; i < keys.length; ++i) {
+				keys[i] = toKey(sorted.get(i).getName());
+			}
+		}
+
+		List<Symbol> find(String prefix) {
+			final String key = toKey(prefix);
+			final int from = lowerBound(key);
+			/* No key starting with the prefix is greater than this one. */
+			final int to = lowerBound(key + Character.MAX_VALUE);
+			return symbols.subList(from, to);
+		}
+
+		List<Symbol> findMatching(String typed) {
+			if (typed.isEmpty()) {
+				return symbols;
+			}
+			final String key = toKey(typed);
+			final BitSet matched = new BitSet(keys.length);
+			/*
+			 * Prefix and camel case matches start with the same character as
+			 * the typed text, so only names starting with it are scanned.
+			 */
+			final String first = key.substring(0, 1);
+			final int from = lowerBound(first);
+			final int to = lowerBound(first + Character.MAX_VALUE);
+			for (int i = from; i < to; ++i) {
+				if (keys[i].startsWith(key)
+						|| ProposalMatcher.match(typed, symbols.get(i).getName()) >= ProposalMatcher.CAMEL_CASE) {
+					matched.set(i);
+				}
+			}
+			/* Names containing the typed text elsewhere. */
+			getSuffixIndex().findContaining(key, matched);
+
+			final List<Symbol> result = new ArrayList<>(matched.cardinality());
+			for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+				result.add(symbols.get(i));
+			}
+			return result;
+		}
+
+		private SuffixIndex getSuffixIndex() {
+			SuffixIndex result = suffixIndex;
+			if (result == null) {
+				/* Building it twice concurrently is harmless. */
+				result = new SuffixIndex(keys);
+				suffixIndex = result;
+			}
+			return result;
+		}
+
+		/**
+		 * Gets the index of the first key that is not smaller than the given
+		 * one.
+		 */
+		private int lowerBound(String key) {
+			int low = 0;
+			int high = keys.length;
+			while (low < high) {
+				final int middle = (low + high) >>> 1;
+				if (keys[middle].compareTo(key) < 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * Sorted proper suffixes of the keys of a partition, i.e. suffixes that
+	 * do not start at the beginning of a key. Keys containing a text are found
+	 * by a binary search of the suffixes starting with it.
+	 */
+	private static final class SuffixIndex {
+
+		private final String[] keys;
+		private final int[] owners;
+		private final int[] offsets;
+
+		SuffixIndex(final String[] keys) {
+			this.keys = keys;
+			final List<int[]> suffixes = new ArrayList<>();
+			for (int i = 0; i < keys.length; ++i) {
+				for (int offset = 1; offset < keys[i].length(); ++offset) {
+					suffixes.add(new int[] { i, offset });
+				}
+			}
+			Collections.sort(suffixes, new Comparator<int[]>() {
+				@Override
+				public int compare(int[] lhs, int[] rhs) {
+					return compareRegions(keys[lhs[0]], lhs[1], keys[rhs[0]], rhs[1]);
+				}
+			});
+			this.owners = new int[suffixes.size()];
+			this.offsets = new int[suffixes.size()];
+			for (int i = 0; i < owners.length; ++i) {
+				owners[i] = suffixes.get(i)[0];
+				offsets[i] = suffixes.get(i)[1];
+			}
+		}
+
+		/**
+		 * Marks the indices of the keys containing the given key at other
+		 * position than the beginning.
+		 */
+		void findContaining(String key, BitSet result) {
+			int low = 0;
+			int high = owners.length;
+			while (low < high) {
+				final int middle = (low + high) >>> 1;
+				if (compareRegions(keys[owners[middle]], offsets[middle], key, 0) < 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			for (int i = low; i < owners.length && keys[owners[i]].startsWith(key, offsets[i]); ++i) {
+				result.set(owners[i]);
+			}
+		}
+
+		/**
+		 * Compares the suffixes of the texts like {@link String#compareTo}.
+		 */
+		private static int compareRegions(String lhs, int lhsFrom, String rhs, int rhsFrom) {
+			final int lhsLength = lhs.length() - lhsFrom;
+			final int rhsLength = rhs.length() - rhsFrom;
+			final int length = Math.min(lhsLength, rhsLength);
+			for (int i = 0; i < length; ++i) {
+				final int result = lhs.charAt(lhsFrom + i) - rhs.charAt(rhsFrom + i);
+				if (result != 0) {
+					return result;
+				}
+			}
+			return lhsLength - rhsLength;
+		}
+	}
+
+	/**
+	 * Orders symbols by names ignoring case, names differing only in case are
+	 * ordered by the names themselves.
+	 */
+	private static final class SymbolComparator implements Comparator<Symbol> {
+
+		@Override
+		public int compare(Symbol lhs, Symbol rhs) {
+			final int result = toKey(lhs.getName()).compareTo(toKey(rhs.getName()));
+			return result != 0 ? result : lhs.getName().compareTo(rhs.getName());
+		}
+	}
+
+	/**
+	 * Gets the kind of a declaration, <code>null</code> for declarations that
+	 * are not proposed.
+	 */
+	private static final class KindVisitor implements ObjectDeclaration.Visitor<Kind, Void> {
+
+		@Override
+		public Kind visit(ComponentRefDeclaration declaration, Void arg) {
+			return Kind.COMPONENT_REF;
+		}
+
+		@Override
+		public Kind visit(ConstantDeclaration declaration, Void arg) {
+			return Kind.VARIABLE;
+		}
+
+		@Override
+		public Kind visit(FunctionDeclaration declaration, Void arg) {
+			final FunctionType type = declaration.getFunctionType();
+			if (type == FunctionType.TASK) {
+				return Kind.TASK;
+			} else if (type == FunctionType.COMMAND) {
+				return Kind.COMMAND;
+			} else if (type == FunctionType.EVENT) {
+				return Kind.EVENT;
+			}
+			return Kind.FUNCTION;
+		}
+
+		@Override
+		public Kind visit(InterfaceRefDeclaration declaration, Void arg) {
+			return Kind.INTERFACE_REF;
+		}
+
+		@Override
+		public Kind visit(TypenameDeclaration declaration, Void arg) {
+			return null;
+		}
+
+		@Override
+		public Kind visit(VariableDeclaration declaration, Void arg) {
+			return Kind.VARIABLE;
+		}
+	}
+
+	/**
+	 * Tables of the scopes of one version of the data of a file.
+	 */
+	private static final class FileTables {
+
+		private final FileData fileData;
+		/* Guarded by this. */
+		private final Map<Environment, ScopeSymbolTable> tables = new IdentityHashMap<>();
+
+		FileTables(FileData fileData) {
+			this.fileData = fileData;
+		}
+
+		synchronized ScopeSymbolTable get(Environment scope) {
+			ScopeSymbolTable table = tables.get(scope);
+			if (table == null) {
+				table = build(scope);
+				tables.put(scope, table);
+			}
+			return table;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package pl.edu.mimuw.nesc.plugin.frontend;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of project cache lookups and evictions.
+ */
+public final class CacheStatistics {
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong softHits = new AtomicLong();
+
+	void recordHit() {
+		hits.incrementAndGet();
+	}
+
+	void recordMiss() {
+		misses.incrementAndGet();
+	}
+
+	void recordEviction() {
+		evictions.incrementAndGet();
+	}
+
+	void recordSoftHit() {
+		softHits.incrementAndGet();
+	}
+
+	/**
+	 * Gets the number of lookups of a project whose data was in memory.
+	 *
+	 * @return number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of lookups of an evicted project, which caused its
+	 * reload.
+	 *
+	 * @return number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets the number of projects evicted from memory.
+	 *
+	 * @return number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Gets the number of reloads of an evicted project whose data was still
+	 * softly reachable, so that it was neither parsed nor read from
+	 * {@link ProjectDataStore}.
+	 *
+	 * @return number of soft hits
+	 */
+	public long getSoftHits() {
+		return softHits.get();
+	}
+
+	@Override
+	public String toString() {
+		return "hits: " + hits.get() + ", misses: " + misses.get() + ", evictions: " + evictions.get()
+				+ ", soft hits: " + softHits.get();
+	}
+}
@@ -0,0 +1,188 @@
+package pl.edu.mimuw.nesc.plugin.frontend;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import pl.edu.mimuw.nesc.FileData;
+import pl.edu.mimuw.nesc.declaration.Declaration;
+import pl.edu.mimuw.nesc.declaration.nesc.InterfaceDeclaration;
+import pl.edu.mimuw.nesc.declaration.nesc.NescDeclaration;
+import pl.edu.mimuw.nesc.declaration.object.ComponentRefDeclaration;
+import pl.edu.mimuw.nesc.declaration.object.InterfaceRefDeclaration;
+import pl.edu.mimuw.nesc.declaration.object.ObjectDeclaration;
+import pl.edu.mimuw.nesc.environment.Environment;
+import pl.edu.mimuw.nesc.preprocessor.directive.IncludeDirective;
+import pl.edu.mimuw.nesc.preprocessor.directive.PreprocessorDirective;
+
+import com.google.common.base.Optional;
+
+/**
+ * <p>
+ * Index of dependencies between files of a project. A file depends on the
+ * files it includes and on the files of the components and interfaces it
+ * references.
+ * </p>
+ * <p>
+ * The index keeps both the dependencies and the reverse edges, so that the set
+ * of files depending on a given file is found in time proportional to its
+ * size. It is updated with every new {@link FileData} of a file and built
+ * from scratch on every full build of the project.
+ * </p>
+ */
+public final class DependencyIndex {
+
+	/* file -> files it depends on */
+	private final Map<String, Set<String>> dependencies = new HashMap<>();
+	/* file -> files depending on it */
+	private final Map<String, Set<String>> dependents = new HashMap<>();
+
+	/**
+	 * Replaces the dependencies of the files with the ones extracted from the
+	 * given data.
+	 *
+	 * @param fileDatas
+	 *            data of updated files
+	 */
+	public synchronized void update(Collection<FileData> fileDatas) {
+		for (FileData fileData : fileDatas) {
+			update(fileData.getFilePath(), extractDependencies(fileData));
+		}
+	}
+
+	/**
+	 * Replaces the whole index with the dependencies extracted from the given
+	 * data. Files absent from the data, e.g. deleted ones, are forgotten.
+	 *
+	 * @param fileDatas
+	 *            data of all files of the project
+	 */
+	public synchronized void rebuild(Collection<FileData> fileDatas) {
+		dependencies.clear();
+		dependents.clear();
+		update(fileDatas);
+	}
+
+	/**
+	 * Gets the files which directly or transitively depend on any of the given
+	 * files. The given files are not included in the result unless they
+	 * depend on each other.
+	 *
+	 * @param filePaths
+	 *            paths of files
+	 * @return paths of dependent files
+	 */
+	public synchronized Set<String> getDependentFiles(Collection<String> filePaths) {
+		final Set<String> result = new HashSet<>();
+		final Deque<String> queue = new ArrayDeque<>(filePaths);
+		while (!queue.isEmpty()) {
+			final Set<String> direct = dependents.get(queue.removeFirst());
+			if (direct == null) {
+				continue;
+			}
+			for (String path : direct) {
+				if (result.add(path)) {
+					queue.addLast(path);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the files the given file directly depends on.
+	 *
+	 * @param filePath
+	 *            file path
+	 * @return paths of files
+	 */
+	public synchronized Set<String> getDependencies(String filePath) {
+		final Set<String> result = dependencies.get(filePath);
+		return result == null ? Collections.<String> emptySet() : new HashSet<>(result);
+	}
+
+	private void update(String filePath, Set<String> newDependencies) {
+		final Set<String> oldDependencies = dependencies.get(filePath);
+		if (oldDependencies != null) {
+			for (String dependency : oldDependencies) {
+				if (newDependencies.contains(dependency)) {
+					continue;
+				}
+				final Set<String> reverse = dependents.get(dependency);
+				reverse.remove(filePath);
+				if (reverse.isEmpty()) {
+					dependents.remove(dependency);
+				}
+			}
+		}
+		for (String dependency : newDependencies) {
+			Set<String> reverse = dependents.get(dependency);
+			if (reverse == null) {
+				reverse = new HashSet<>();
+				dependents.put(dependency, reverse);
+			}
+			reverse.add(filePath);
+		}
+		if (newDependencies.isEmpty()) {
+			dependencies.remove(filePath);
+		} else {
+			dependencies.put(filePath, newDependencies);
+		}
+	}
+
+	private static Set<String> extractDependencies(FileData fileData) {
+		final Set<String> result = new HashSet<>();
+		final List<PreprocessorDirective> directives = fileData.getPreprocessorDirectives();
+		if (directives != null) {
+			for (PreprocessorDirective directive : directives) {
+				if (!(directive instanceof IncludeDirective)) {
+					continue;
+				}
+				final Optional<String> includedPath = ((IncludeDirective) directive).getFilePath();
+				if (includedPath.isPresent()) {
+					result.add(includedPath.get());
+				}
+			}
+		}
+		if (fileData.getEnvironment() != null) {
+			addReferencedEntities(fileData.getEnvironment(), result);
+		}
+		result.remove(fileData.getFilePath());
+		return result;
+	}
+
+	private static void addReferencedEntities(Environment environment, Set<String> result) {
+		for (Map.Entry<String, ObjectDeclaration> entry : environment.getObjects().getAll()) {
+			final ObjectDeclaration declaration = entry.getValue();
+			if (declaration instanceof ComponentRefDeclaration) {
+				final Optional<? extends NescDeclaration> component = ((ComponentRefDeclaration) declaration)
+						.getComponentDeclaration();
+				if (component != null && component.isPresent()) {
+					addDeclarationFile(component.get(), result);
+				}
+			} else if (declaration instanceof InterfaceRefDeclaration) {
+				final Optional<InterfaceDeclaration> iface = ((InterfaceRefDeclaration) declaration)
+						.getIfaceDeclaration();
+				/* Not set when the component has syntax errors. */
+				if (iface != null && iface.isPresent()) {
+					addDeclarationFile(iface.get(), result);
+				}
+			}
+		}
+		for (Environment nested : environment.getEnclosedEnvironments()) {
+			addReferencedEntities(nested, result);
+		}
+	}
+
+	private static void addDeclarationFile(Declaration declaration, Set<String> result) {
+		if (declaration.getLocation() != null) {
+			result.add(declaration.getLocation().getFilePath());
+		}
+	}
+}
@@ -3,15 +3,30 @@ package pl.edu.mimuw.nesc.plugin.frontend;
 import static pl.edu.mimuw.nesc.plugin.projects.util.NescProjectPreferences.*;
 
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 
 import pl.edu.mimuw.nesc.ContextRef;
 import pl.edu.mimuw.nesc.FileData;
@@ -20,6 +35,7 @@ import pl.edu.mimuw.nesc.ProjectData;
 import pl.edu.mimuw.nesc.exception.InvalidOptionsException;
 import pl.edu.mimuw.nesc.plugin.NescPlugin;
 import pl.edu.mimuw.nesc.plugin.marker.MarkerHelper;
+import pl.edu.mimuw.nesc.plugin.preferences.NescPluginPreferences;
 import pl.edu.mimuw.nesc.plugin.projects.util.NescPlatformUtil;
 import pl.edu.mimuw.nesc.plugin.projects.util.NescPlatformUtil.NescPlatform;
 import pl.edu.mimuw.nesc.plugin.resources.PathsUtil;
@@ -37,8 +53,38 @@ import com.google.common.base.Preconditions;
  */
 public final class FrontendManager {
 
-	private static final Object LOCK = new Object();
-	private static final Map<String, ProjectCache> PROJECTS = new HashMap<String, ProjectCache>();
+	/*
+	 * Each project has its own lock which serializes modifications of its
+	 * context and cache, so that operations on one project never block
+	 * operations on another one. Lookups (content assist, hyperlinks, markers)
+	 * do not lock at all, they read the latest published ProjectSnapshot.
+	 */
+	private static final ConcurrentMap<String, ProjectCache> PROJECTS = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+	/*
+	 * Projects are evicted from memory in the least recently used order when
+	 * there are more of them than the limit set in the preferences, and when
+	 * they were not accessed for the idle time set in the preferences.
+	 * Projects with open editors or being built or updated, i.e. holding
+	 * their lock or their ProjectBuildScheduler rule, are not evicted. The
+	 * data of an evicted project stays softly reachable, so that it is
+	 * reloaded without parsing while the memory is not needed. Otherwise it
+	 * is rebuilt or restored from ProjectDataStore when accessed again.
+	 */
+	private static final ConcurrentMap<String, AtomicInteger> OPEN_EDITORS = new ConcurrentHashMap<>();
+	private static final Set<String> EVICTED = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private static final ConcurrentMap<String, EvictedData> EVICTED_DATA = new ConcurrentHashMap<>();
+	private static final CacheStatistics STATISTICS = new CacheStatistics();
+	private static final long IDLE_CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+	private static final Job IDLE_PROJECTS_JOB = new IdleProjectsJob();
+
+	/*
+	 * Projects whose files changed while they were not built. Their data
+	 * restored from ProjectDataStore may be out of date, so their next build
+	 * parses them.
+	 */
+	private static final Set<String> DIRTY = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
 	/**
 	 * Ensures that a frontend context for the project exists. If not, it is
@@ -52,47 +98,66 @@ public final class FrontendManager {
 	 */
 	public static Optional<String> ensureContext(IProject project) {
 		Preconditions.checkNotNull(project, "project cannot be null");
-		synchronized (LOCK) {
-			final Optional<ProjectCache> cache = getProjectCache(project);
-			if (cache.isPresent()) {
+		if (PROJECTS.containsKey(project.getName())) {
+			return Optional.<String> absent();
+		}
+		final Lock lock = getLock(project.getName());
+		lock.lock();
+		try {
+			if (PROJECTS.containsKey(project.getName())) {
 				return Optional.<String> absent();
 			}
-			try {
-				final String options[] = getProjectArgs(project);
-				final ContextRef context = getFrontend().createContext(options);
-				PROJECTS.put(project.getName(), new ProjectCache(context));
-			} catch (InvalidOptionsException e) {
-				e.printStackTrace();
-				return Optional.of(e.getMessage());
-			} catch (ConfigurationException | IOException e) {
-				e.printStackTrace();
-				return Optional.of(e.getMessage());
-			} catch (Exception e) {
-				/* Unexpected error. */
-				e.printStackTrace();
-				return Optional.of(e.getMessage());
-			}
+			final String options[] = getProjectArgs(project);
+			final ContextRef context = getFrontend().createContext(options);
+			PROJECTS.put(project.getName(), new ProjectCache(context, options));
+		} catch (InvalidOptionsException e) {
+			e.printStackTrace();
+			return Optional.of(e.getMessage());
+		} catch (ConfigurationException | IOException e) {
+			e.printStackTrace();
+			return Optional.of(e.getMessage());
+		} catch (Exception e) {
+			/* Unexpected error. */
+			e.printStackTrace();
+			return Optional.of(e.getMessage());
+		} finally {
+			lock.unlock();
 		}
 		return Optional.<String> absent();
 	}
 
 	/**
-	 * Updates options of the context associated with given project.
+	 * Updates options of the context associated with given project. Nothing
+	 * is done when the options computed from the project settings are the
+	 * same as the ones the context already has.
 	 *
 	 * @param project
 	 *            project
+	 * @return <code>true</code> if the options of the context were changed
 	 */
-	public static void updateContext(IProject project) {
+	public static boolean updateContext(IProject project) {
 		Preconditions.checkNotNull(project, "project cannot be null");
-		synchronized (LOCK) {
-			ensureContext(project);
-			final ContextRef context = getProjectCache(project).get().getContextRef();
-			try {
-				getFrontend().updateSettings(context, getProjectArgs(project));
-			} catch (ConfigurationException | InvalidOptionsException | IOException | URISyntaxException e) {
-				// TODO should not happen! but show error dialog?
-				e.printStackTrace();
+		ensureContext(project);
+		final Lock lock = getLock(project.getName());
+		lock.lock();
+		try {
+			final Optional<ProjectCache> cache = getProjectCache(project);
+			if (!cache.isPresent()) {
+				return false;
+			}
+			final String[] options = getProjectArgs(project);
+			if (Arrays.equals(options, cache.get().getOptions())) {
+				return false;
 			}
+			getFrontend().updateSettings(cache.get().getContextRef(), options);
+			cache.get().setOptions(options);
+			return true;
+		} catch (ConfigurationException | InvalidOptionsException | IOException | URISyntaxException e) {
+			// TODO should not happen! but show error dialog?
+			e.printStackTrace();
+			return false;
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -104,45 +169,179 @@ public final class FrontendManager {
 	 */
 	public static void deleteContext(String projectName) {
 		Preconditions.checkNotNull(projectName, "project name be null");
-		synchronized (LOCK) {
-			final ProjectCache cache = PROJECTS.get(projectName);
+		final Lock lock = getLock(projectName);
+		lock.lock();
+		try {
+			ProjectDataStore.delete(projectName);
+			EVICTED.remove(projectName);
+			EVICTED_DATA.remove(projectName);
+			DIRTY.remove(projectName);
+			OPEN_EDITORS.remove(projectName);
+			final ProjectCache cache = PROJECTS.remove(projectName);
 			if (cache == null) {
 				// TODO
 				return;
 			}
 			getFrontend().deleteContext(cache.getContextRef());
-			PROJECTS.remove(projectName);
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	/**
-	 * (Re)builds given project.
+	 * (Re)builds given project. When the project is built for the first time
+	 * in the session, its data is restored from {@link ProjectDataStore} if
+	 * none of its files has changed since the last build. When the project
+	 * was evicted from memory, its data is reused if it is still softly
+	 * reachable and the project has not changed since the eviction. The
+	 * frontend context of a restored project is built on its first use, see
+	 * {@link #updateFile(IProject, String)}.
 	 *
 	 * @param project
 	 *            project
 	 * @return project data
 	 */
 	public static ProjectData buildContext(IProject project) {
+		return buildContext(project, true);
+	}
+
+	private static ProjectData buildContext(IProject project, boolean restore) {
 		Preconditions.checkNotNull(project, "project cannot be null");
-		synchronized (LOCK) {
-			ensureContext(project);
-		}
+		ensureContext(project);
 
-		// Long-running operations should not be in synchronized blocks.
-		final ContextRef context = getProjectCache(project).get().getContextRef();
-		final ProjectData projectData = getFrontend().build(context);
+		// Long-running operations should not hold the lock.
+		final ProjectCache projectCache = getProjectCache(project).get();
+		final Optional<String[]> options = getProjectArgsOptional(project);
+		final boolean dirty = DIRTY.remove(project.getName());
+		final EvictedData evicted = EVICTED_DATA.remove(project.getName());
+		Optional<ProjectData> restored = Optional.absent();
+		if (restore && !dirty && projectCache.getProjectData() == null && options.isPresent()) {
+			if (evicted != null) {
+				restored = evicted.get(options.get());
+			}
+			if (restored.isPresent()) {
+				STATISTICS.recordSoftHit();
+			} else {
+				restored = ProjectDataStore.load(project, options.get());
+			}
+		}
+		final ProjectData projectData;
+		if (restored.isPresent()) {
+			projectData = restored.get();
+		} else {
+			final long buildTime = System.currentTimeMillis();
+			projectData = getFrontend().build(projectCache.getContextRef());
+			if (options.isPresent()) {
+				ProjectDataStore.save(project, options.get(), projectData, buildTime);
+			}
+		}
 
-		synchronized (LOCK) {
-			final ProjectCache cache = getProjectCache(project).get();
-			cache.setProjectData(projectData);
-			for (FileData data : projectData.getFileDatas().values()) {
-				cache.getFilesMap().put(data.getFilePath(), data);
+		final Lock lock = getLock(project.getName());
+		lock.lock();
+		try {
+			final Optional<ProjectCache> cache = getProjectCache(project);
+			if (cache.isPresent() && restored.isPresent()) {
+				cache.get().publishRestored(projectData);
+			} else if (cache.isPresent()) {
+				cache.get().publishBuild(projectData);
 			}
+		} finally {
+			lock.unlock();
+		}
+		/* Files being edited will be updated soon, which needs a built context. */
+		if (restored.isPresent() && hasOpenEditors(project.getName())) {
+			ProjectBuildScheduler.schedule(project);
 		}
 		MarkerHelper.updateMarkersJob(project);
+		enforceMemoryBudget();
 		return projectData;
 	}
 
+	/**
+	 * (Re)builds given project in a separate job. Requests for a project
+	 * whose build job is already waiting are ignored.
+	 *
+	 * @param project
+	 *            project
+	 * @see ProjectBuildScheduler
+	 */
+	public static void buildContextJob(IProject project) {
+		ProjectBuildScheduler.schedule(project);
+	}
+
+	/**
+	 * Marks that files of the project changed while it was not built or that
+	 * the user requested parsing of the whole project. The next build of the
+	 * project parses it instead of restoring its data.
+	 *
+	 * @param project
+	 *            project
+	 */
+	public static void markDirty(IProject project) {
+		Preconditions.checkNotNull(project, "project cannot be null");
+		DIRTY.add(project.getName());
+	}
+
+	/**
+	 * Checks whether the options computed from the current project settings
+	 * differ from the options the context was created or updated with.
+	 *
+	 * @param project
+	 *            project
+	 * @return <code>true</code> if the context should be updated
+	 */
+	public static boolean haveOptionsChanged(IProject project) {
+		final Optional<ProjectCache> cache = getProjectCache(project);
+		if (!cache.isPresent()) {
+			return true;
+		}
+		final Optional<String[]> options = getProjectArgsOptional(project);
+		return !options.isPresent() || !Arrays.equals(options.get(), cache.get().getOptions());
+	}
+
+	/**
+	 * Gets the files of the project which directly or transitively depend on
+	 * any of the given files.
+	 *
+	 * @param project
+	 *            project
+	 * @param filePaths
+	 *            paths of files
+	 * @return paths of dependent files
+	 */
+	public static Set<String> getDependentFiles(IProject project, Collection<String> filePaths) {
+		final Optional<ProjectCache> cache = getProjectCache(project);
+		if (!cache.isPresent()) {
+			return Collections.emptySet();
+		}
+		return cache.get().getDependencyIndex().getDependentFiles(filePaths);
+	}
+
+	/**
+	 * Checks whether the frontend context of given project exists.
+	 *
+	 * @param project
+	 *            project
+	 * @return <code>true</code> if the context exists
+	 */
+	public static boolean hasContext(IProject project) {
+		return PROJECTS.containsKey(project.getName());
+	}
+
+	/**
+	 * Checks whether given project was built (or restored from cache) in the
+	 * current session.
+	 *
+	 * @param project
+	 *            project
+	 * @return <code>true</code> if the project data is available
+	 */
+	public static boolean isBuilt(IProject project) {
+		/* Does not count as an access, evicted projects are not reloaded. */
+		final ProjectCache cache = PROJECTS.get(project.getName());
+		return cache != null && cache.getProjectData() != null;
+	}
+
 	/**
 	 * Updates specified file in given context.
 	 *
@@ -153,45 +352,227 @@ public final class FrontendManager {
 	 * @return data of specified file and its newly parsed dependencies
 	 */
 	public static ProjectData updateFile(IProject project, String filePath) {
-		synchronized (LOCK) {
-			ensureContext(project);
+		ensureContext(project);
+		if (getProjectCache(project).get().isRestored()) {
+			/* The context has not parsed the project, the restored data only stands in for it. */
+			buildContext(project, false);
 		}
 
-		// Long-running operations should not be in synchronized blocks.
+		// Long-running operations should not hold the lock.
 		final ContextRef context = getProjectCache(project).get().getContextRef();
 		final ProjectData projectData = getFrontend().update(context, filePath);
 
-		synchronized (LOCK) {
-			final ProjectCache cache = getProjectCache(project).get();
-			for (FileData data : projectData.getFileDatas().values()) {
-				cache.getFilesMap().put(data.getFilePath(), data);
+		final Lock lock = getLock(project.getName());
+		lock.lock();
+		try {
+			final Optional<ProjectCache> cache = getProjectCache(project);
+			if (cache.isPresent()) {
+				cache.get().publishUpdate(projectData);
 			}
 			return projectData;
+		} finally {
+			lock.unlock();
 		}
 	}
 
-	public static ProjectData getProjectData(IProject project) {
-		synchronized (LOCK) {
-			final ProjectData projectData = PROJECTS.get(project.getName()).getProjectData();
-			if (projectData == null) {
-				// TODO should not happen!
+	/**
+	 * Gets the latest snapshot of the project data. All data obtained from the
+	 * snapshot is consistent, i.e. comes from the same build or update.
+	 *
+	 * @param project
+	 *            project
+	 * @return snapshot or <code>Optional.absent()</code> if the project has no
+	 *         context
+	 */
+	public static Optional<ProjectSnapshot> getSnapshot(IProject project) {
+		final Optional<ProjectCache> cache = getProjectCache(project);
+		if (!cache.isPresent()) {
+			if (EVICTED.remove(project.getName())) {
+				/* Reload transparently, the data will be available soon. */
+				STATISTICS.recordMiss();
+				buildContextJob(project);
 			}
-			return projectData;
+			return Optional.absent();
 		}
+		STATISTICS.recordHit();
+		return Optional.of(cache.get().getSnapshot());
+	}
+
+	/**
+	 * Notifies that a file of given project was opened in an editor. The
+	 * project is not evicted from memory until all of its editors are closed.
+	 *
+	 * @param project
+	 *            project
+	 */
+	public static void editorOpened(IProject project) {
+		final AtomicInteger counter = new AtomicInteger();
+		final AtomicInteger previous = OPEN_EDITORS.putIfAbsent(project.getName(), counter);
+		(previous != null ? previous : counter).incrementAndGet();
+		/* Build the context of restored data before the file is updated. */
+		final ProjectCache cache = PROJECTS.get(project.getName());
+		if (cache != null && cache.isRestored()) {
+			ProjectBuildScheduler.schedule(project);
+		}
+	}
+
+	/**
+	 * Notifies that an editor of a file of given project was closed.
+	 *
+	 * @param project
+	 *            project
+	 */
+	public static void editorClosed(IProject project) {
+		final AtomicInteger counter = OPEN_EDITORS.get(project.getName());
+		if (counter != null) {
+			counter.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Gets the statistics of accesses to the projects data.
+	 *
+	 * @return statistics
+	 */
+	public static CacheStatistics getCacheStatistics() {
+		return STATISTICS;
+	}
+
+	public static ProjectData getProjectData(IProject project) {
+		final Optional<ProjectSnapshot> snapshot = getSnapshot(project);
+		if (!snapshot.isPresent() || snapshot.get().getProjectData() == null) {
+			// TODO should not happen!
+			return null;
+		}
+		return snapshot.get().getProjectData();
 	}
 
 	public static Optional<FileData> getFileData(IProject project, String filePath) {
-		synchronized (LOCK) {
-			if (!PROJECTS.containsKey(project.getName())) {
-				// TODO should not happen!
-			}
-			return Optional.fromNullable(PROJECTS.get(project.getName()).getFilesMap().get(filePath));
+		final Optional<ProjectSnapshot> snapshot = getSnapshot(project);
+		if (!snapshot.isPresent()) {
+			// TODO should not happen!
+			return Optional.absent();
 		}
+		return snapshot.get().getFileData(filePath);
 	}
 
+	/**
+	 * Gets the cache of the project. Every access marks the project as
+	 * recently used.
+	 */
 	private static Optional<ProjectCache> getProjectCache(IProject project) {
-		synchronized (LOCK) {
-			return Optional.fromNullable(PROJECTS.get(project.getName()));
+		final ProjectCache cache = PROJECTS.get(project.getName());
+		if (cache != null) {
+			cache.touch();
+		}
+		return Optional.fromNullable(cache);
+	}
+
+	private static ReentrantLock getLock(String projectName) {
+		final ReentrantLock lock = LOCKS.get(projectName);
+		if (lock != null) {
+			return lock;
+		}
+		final ReentrantLock newLock = new ReentrantLock();
+		final ReentrantLock previous = LOCKS.putIfAbsent(projectName, newLock);
+		return previous != null ? previous : newLock;
+	}
+
+	private static void enforceMemoryBudget() {
+		evictIdleProjects();
+		final int limit = NescPluginPreferences.getInt(NescPluginPreferences.MAX_CACHED_PROJECTS);
+		if (limit > 0) {
+			evictLeastRecentlyUsed(limit);
+		}
+		/* Sleeping or running checks are not scheduled again. */
+		if (IDLE_PROJECTS_JOB.getState() == Job.NONE) {
+			IDLE_PROJECTS_JOB.schedule(IDLE_CHECK_INTERVAL);
+		}
+	}
+
+	/**
+	 * Evicts projects not in use which were not accessed for the idle time
+	 * set in the preferences.
+	 */
+	private static void evictIdleProjects() {
+		final int idleTime = NescPluginPreferences.getInt(NescPluginPreferences.PROJECT_IDLE_TIME);
+		if (idleTime <= 0) {
+			return;
+		}
+		final long idleSince = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(idleTime);
+		for (Map.Entry<String, ProjectCache> entry : PROJECTS.entrySet()) {
+			if (entry.getValue().getLastAccessTime() < idleSince && !isInUse(entry.getKey())) {
+				evict(entry.getKey());
+			}
+		}
+	}
+
+	private static void evictLeastRecentlyUsed(int limit) {
+		/* Projects that turned out to be in use while being evicted. */
+		final Set<String> skipped = new HashSet<>();
+		while (PROJECTS.size() > limit) {
+			String leastRecentlyUsed = null;
+			long leastRecentAccess = Long.MAX_VALUE;
+			for (Map.Entry<String, ProjectCache> entry : PROJECTS.entrySet()) {
+				if (skipped.contains(entry.getKey()) || isInUse(entry.getKey())) {
+					continue;
+				}
+				if (entry.getValue().getLastAccessTime() < leastRecentAccess) {
+					leastRecentAccess = entry.getValue().getLastAccessTime();
+					leastRecentlyUsed = entry.getKey();
+				}
+			}
+			/* All projects are in use. */
+			if (leastRecentlyUsed == null) {
+				return;
+			}
+			if (!evict(leastRecentlyUsed)) {
+				skipped.add(leastRecentlyUsed);
+			}
+		}
+	}
+
+	private static boolean isInUse(String projectName) {
+		return hasOpenEditors(projectName) || getLock(projectName).isLocked()
+				|| ProjectBuildScheduler.isRuleInUse(projectName);
+	}
+
+	private static boolean hasOpenEditors(String projectName) {
+		final AtomicInteger editors = OPEN_EDITORS.get(projectName);
+		return editors != null && editors.get() > 0;
+	}
+
+	/**
+	 * Evicts the project unless it is in use.
+	 *
+	 * @return <code>true</code> if the project was evicted
+	 */
+	private static boolean evict(String projectName) {
+		final Lock lock = getLock(projectName);
+		if (!lock.tryLock()) {
+			return false;
+		}
+		try {
+			/* Checked again, the rule may have been taken in the meantime. */
+			if (ProjectBuildScheduler.isRuleInUse(projectName)) {
+				return false;
+			}
+			/* The stored data is kept, so that the project is quickly restored. */
+			final ProjectCache cache = PROJECTS.remove(projectName);
+			if (cache == null) {
+				return true;
+			}
+			getFrontend().deleteContext(cache.getContextRef());
+			/* Data changed by updates since the last build cannot be reused. */
+			final ProjectSnapshot snapshot = cache.getSnapshot();
+			if (snapshot.getProjectData() != null && !snapshot.isUpdated()) {
+				EVICTED_DATA.put(projectName, new EvictedData(cache.getOptions(), snapshot.getProjectData()));
+			}
+			EVICTED.add(projectName);
+			STATISTICS.recordEviction();
+			return true;
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -199,6 +580,15 @@ public final class FrontendManager {
 		return NescPlugin.getDefault().getNescFrontend();
 	}
 
+	private static Optional<String[]> getProjectArgsOptional(IProject project) {
+		try {
+			return Optional.of(getProjectArgs(project));
+		} catch (ConfigurationException | IOException | URISyntaxException e) {
+			e.printStackTrace();
+			return Optional.absent();
+		}
+	}
+
 	private static String[] getProjectArgs(IProject project) throws ConfigurationException, IOException,
 			URISyntaxException {
 		final IPath projectPath = project.getLocation();
@@ -249,4 +639,52 @@ public final class FrontendManager {
 		options.add(key);
 		options.add(value);
 	}
+
+	/**
+	 * Options and softly reachable data of an evicted project.
+	 */
+	private static final class EvictedData {
+
+		private final String[] options;
+		private final SoftReference<ProjectData> projectData;
+
+		private EvictedData(String[] options, ProjectData projectData) {
+			this.options = options;
+			this.projectData = new SoftReference<>(projectData);
+		}
+
+		/**
+		 * Gets the data if it was not reclaimed and was built with given
+		 * options.
+		 */
+		private Optional<ProjectData> get(String[] currentOptions) {
+			if (!Arrays.equals(options, currentOptions)) {
+				return Optional.absent();
+			}
+			return Optional.fromNullable(projectData.get());
+		}
+	}
+
+	/**
+	 * Periodically evicts idle projects, also when no project is built.
+	 */
+	private static final class IdleProjectsJob extends Job {
+
+		private IdleProjectsJob() {
+			super("Evicting idle nesC projects");
+			setSystem(true);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			if (NescPlugin.getDefault() == null) {
+				return Status.OK_STATUS;
+			}
+			evictIdleProjects();
+			if (!PROJECTS.isEmpty() && NescPluginPreferences.getInt(NescPluginPreferences.PROJECT_IDLE_TIME) > 0) {
+				schedule(IDLE_CHECK_INTERVAL);
+			}
+			return Status.OK_STATUS;
+		}
+	}
 }
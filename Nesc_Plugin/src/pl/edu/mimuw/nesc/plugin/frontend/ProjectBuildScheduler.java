@@ -0,0 +1,222 @@
+package pl.edu.mimuw.nesc.plugin.frontend;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+
+import pl.edu.mimuw.nesc.plugin.natures.NescProjectNature;
+import pl.edu.mimuw.nesc.plugin.preferences.NescPluginPreferences;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Builds projects in background jobs. Builds of different projects run
+ * concurrently, but no more of them than the limit set in the plug-in
+ * preferences. Operations on the same project are serialized by the
+ * scheduling rule returned by {@link #getRule(IProject)}.
+ * </p>
+ * <p>
+ * A project that is already waiting for its build is not queued again.
+ * </p>
+ */
+public final class ProjectBuildScheduler {
+
+	private static final Object LOCK = new Object();
+
+	/* Guarded by LOCK. */
+	private static final Deque<IProject> QUEUE = new ArrayDeque<>();
+	private static final Set<String> WAITING = new HashSet<>();
+	private static int running = 0;
+
+	/*
+	 * Number of threads holding or waiting for the rule of each project, so
+	 * that projects being built are not evicted from memory.
+	 */
+	private static final ConcurrentMap<String, AtomicInteger> RULE_HOLDERS = new ConcurrentHashMap<>();
+
+	/**
+	 * Schedules the build of the project.
+	 *
+	 * @param project
+	 *            project
+	 */
+	public static void schedule(IProject project) {
+		Preconditions.checkNotNull(project, "project cannot be null");
+		synchronized (LOCK) {
+			if (!WAITING.add(project.getName())) {
+				return;
+			}
+			QUEUE.addLast(project);
+		}
+		startJobs();
+	}
+
+	/**
+	 * Gets the rule which should be set for every job modifying the frontend
+	 * context of the project.
+	 *
+	 * @param project
+	 *            project
+	 * @return scheduling rule
+	 */
+	public static ISchedulingRule getRule(IProject project) {
+		return new ProjectRule(project.getName());
+	}
+
+	/**
+	 * Begins the rule of the project in the current thread. Must be followed
+	 * by {@link #endRule(IProject)}, even if this method throws an exception.
+	 *
+	 * @param project
+	 *            project
+	 * @param monitor
+	 *            progress monitor, may be <code>null</code>
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#beginRule(ISchedulingRule,
+	 *      IProgressMonitor)
+	 */
+	public static void beginRule(IProject project, IProgressMonitor monitor) {
+		getRuleHolders(project.getName()).incrementAndGet();
+		Job.getJobManager().beginRule(getRule(project), monitor);
+	}
+
+	/**
+	 * Ends the rule of the project begun with
+	 * {@link #beginRule(IProject, IProgressMonitor)}.
+	 *
+	 * @param project
+	 *            project
+	 */
+	public static void endRule(IProject project) {
+		try {
+			Job.getJobManager().endRule(getRule(project));
+		} finally {
+			getRuleHolders(project.getName()).decrementAndGet();
+		}
+	}
+
+	/**
+	 * Checks whether any thread holds or waits for the rule of the project.
+	 *
+	 * @param projectName
+	 *            project name
+	 * @return <code>true</code> if the rule is in use
+	 */
+	public static boolean isRuleInUse(String projectName) {
+		final AtomicInteger holders = RULE_HOLDERS.get(projectName);
+		return holders != null && holders.get() > 0;
+	}
+
+	private static AtomicInteger getRuleHolders(String projectName) {
+		final AtomicInteger holders = RULE_HOLDERS.get(projectName);
+		if (holders != null) {
+			return holders;
+		}
+		final AtomicInteger newHolders = new AtomicInteger();
+		final AtomicInteger previous = RULE_HOLDERS.putIfAbsent(projectName, newHolders);
+		return previous != null ? previous : newHolders;
+	}
+
+	/**
+	 * Gets the maximum number of projects built at the same time.
+	 *
+	 * @return parallelism limit
+	 */
+	public static int getParallelism() {
+		final int parallelism = NescPluginPreferences.getInt(NescPluginPreferences.BUILD_PARALLELISM);
+		return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+	}
+
+	private static void startJobs() {
+		final List<IProject> projects = new ArrayList<>();
+		synchronized (LOCK) {
+			final int parallelism = getParallelism();
+			while (running < parallelism && !QUEUE.isEmpty()) {
+				projects.add(QUEUE.removeFirst());
+				++running;
+			}
+		}
+		for (IProject project : projects) {
+			createJob(project).schedule();
+		}
+	}
+
+	private static Job createJob(final IProject project) {
+		final Job job = new Job("Building project " + project.getName() + "...") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				/* Requests arriving from now on need another build. */
+				synchronized (LOCK) {
+					WAITING.remove(project.getName());
+				}
+				try {
+					/* The job already has the rule, it is only marked as used. */
+					beginRule(project, monitor);
+					if (project.isOpen() && project.hasNature(NescProjectNature.NATURE_ID)) {
+						FrontendManager.buildContext(project);
+					}
+				} catch (CoreException e) {
+					e.printStackTrace();
+				} finally {
+					endRule(project);
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.addJobChangeListener(new JobChangeAdapter() {
+			@Override
+			public void done(IJobChangeEvent event) {
+				/* Called also when the job was cancelled before running. */
+				synchronized (LOCK) {
+					WAITING.remove(project.getName());
+					--running;
+				}
+				startJobs();
+			}
+		});
+		job.setRule(getRule(project));
+		job.setPriority(Job.BUILD);
+		return job;
+	}
+
+	/**
+	 * Rule which conflicts only with the rule of the same project.
+	 */
+	private static final class ProjectRule implements ISchedulingRule {
+
+		private final String projectName;
+
+		private ProjectRule(String projectName) {
+			this.projectName = projectName;
+		}
+
+		@Override
+		public boolean contains(ISchedulingRule rule) {
+			return isConflicting(rule);
+		}
+
+		@Override
+		public boolean isConflicting(ISchedulingRule rule) {
+			return rule instanceof ProjectRule && ((ProjectRule) rule).projectName.equals(projectName);
+		}
+	}
+
+	private ProjectBuildScheduler() {
+	}
+}
@@ -1,13 +1,17 @@
 package pl.edu.mimuw.nesc.plugin.frontend;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import pl.edu.mimuw.nesc.ContextRef;
 import pl.edu.mimuw.nesc.FileData;
 import pl.edu.mimuw.nesc.ProjectData;
 
 /**
+ * Holds the frontend context of a project and the most recent
+ * {@link ProjectSnapshot} of its data. Snapshots are published with a single
+ * atomic reference swap, so readers never see a partially updated state and do
+ * not need any locking.
  *
  * @author Grzegorz Kołakowski <gk291583@students.mimuw.edu.pl>
  *
@@ -15,28 +19,128 @@ import pl.edu.mimuw.nesc.ProjectData;
 public final class ProjectCache {
 
 	private final ContextRef contextRef;
-	private final Map<String, FileData> filesMap;
-	private ProjectData projectData;
+	private final AtomicReference<ProjectSnapshot> snapshot;
+	private final DependencyIndex dependencyIndex;
+	private volatile String[] options;
+	private volatile long lastAccessTime;
+	private volatile boolean restored;
 
-	public ProjectCache(ContextRef contextRef) {
+	public ProjectCache(ContextRef contextRef, String[] options) {
 		this.contextRef = contextRef;
-		this.filesMap = new HashMap<>();
+		this.snapshot = new AtomicReference<>(ProjectSnapshot.EMPTY);
+		this.dependencyIndex = new DependencyIndex();
+		this.options = options.clone();
+		this.lastAccessTime = System.currentTimeMillis();
 	}
 
 	public ContextRef getContextRef() {
 		return contextRef;
 	}
 
-	public ProjectData getProjectData() {
-		return projectData;
+	/**
+	 * Gets the options the context was created or last updated with.
+	 *
+	 * @return frontend options
+	 */
+	public String[] getOptions() {
+		return options.clone();
+	}
+
+	public void setOptions(String[] options) {
+		this.options = options.clone();
+	}
+
+	/**
+	 * Marks the cache as recently used.
+	 */
+	public void touch() {
+		lastAccessTime = System.currentTimeMillis();
+	}
+
+	public long getLastAccessTime() {
+		return lastAccessTime;
+	}
+
+	public DependencyIndex getDependencyIndex() {
+		return dependencyIndex;
+	}
+
+	public ProjectSnapshot getSnapshot() {
+		return snapshot.get();
 	}
 
-	public void setProjectData(ProjectData projectData) {
-		this.projectData = projectData;
+	public ProjectData getProjectData() {
+		return snapshot.get().getProjectData();
 	}
 
 	public Map<String, FileData> getFilesMap() {
-		return filesMap;
+		return snapshot.get().getFilesMap();
+	}
+
+	/**
+	 * Publishes the result of a full project build.
+	 *
+	 * @param projectData
+	 *            project data
+	 * @return published snapshot
+	 */
+	public ProjectSnapshot publishBuild(ProjectData projectData) {
+		restored = false;
+		return publish(projectData);
+	}
+
+	/**
+	 * Publishes the project data restored from {@link ProjectDataStore}. The
+	 * frontend context has not parsed the project, so it must be built before
+	 * it is used.
+	 *
+	 * @param projectData
+	 *            restored project data
+	 * @return published snapshot
+	 */
+	public ProjectSnapshot publishRestored(ProjectData projectData) {
+		restored = true;
+		return publish(projectData);
+	}
+
+	/**
+	 * Checks whether the published data was restored from
+	 * {@link ProjectDataStore} and the context was not built since then.
+	 *
+	 * @return <code>true</code> if the context is not built yet
+	 */
+	public boolean isRestored() {
+		return restored;
+	}
+
+	/**
+	 * Publishes the result of a single file update.
+	 *
+	 * @param projectData
+	 *            data of the updated file and its newly parsed dependencies
+	 * @return published snapshot
+	 */
+	public ProjectSnapshot publishUpdate(ProjectData projectData) {
+		dependencyIndex.update(projectData.getFileDatas().values());
+		while (true) {
+			final ProjectSnapshot current = snapshot.get();
+			final ProjectSnapshot next = current.withUpdate(projectData);
+			if (snapshot.compareAndSet(current, next)) {
+				return next;
+			}
+		}
+	}
+
+	private ProjectSnapshot publish(ProjectData projectData) {
+		dependencyIndex.rebuild(projectData.getFileDatas().values());
+		touch();
+		while (true) {
+			final ProjectSnapshot current = snapshot.get();
+			final ProjectSnapshot next = current.withBuild(projectData);
+			if (snapshot.compareAndSet(current, next)) {
+				return next;
+			}
+		}
 	}
 
 }
@@ -0,0 +1,254 @@
+package pl.edu.mimuw.nesc.plugin.frontend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+import pl.edu.mimuw.nesc.FileData;
+import pl.edu.mimuw.nesc.ProjectData;
+import pl.edu.mimuw.nesc.plugin.NescPlugin;
+
+import com.google.common.base.Optional;
+
+/**
+ * <p>
+ * Persistent cache of project build results kept in the plug-in state
+ * location. It allows to restore the data of a project on workspace startup
+ * instead of parsing the whole project again.
+ * </p>
+ * <p>
+ * An entry is valid only if the frontend options are the same as during the
+ * build and none of the parsed files has changed. The entry starts with a
+ * header containing the options and the SHA-1 hash of the contents of every
+ * parsed file, followed by the deflated project data. Files modified after
+ * the build has started are not hashed, the entry is not saved then.
+ * </p>
+ */
+public final class ProjectDataStore {
+
+	private static final int MAGIC = 0x4e657343;
+	private static final int FORMAT_VERSION = 1;
+	private static final String CACHE_DIR = "project-cache";
+	private static final String CACHE_FILE_EXTENSION = ".bin";
+	private static final String HASH_ALGORITHM = "SHA-1";
+	/**
+	 * Coarsest resolution of file modification times of common file systems.
+	 */
+	private static final long TIMESTAMP_RESOLUTION = 2000;
+
+	/* Tells if it was logged that the project data cannot be persisted. */
+	private static final AtomicBoolean UNAVAILABLE_LOGGED = new AtomicBoolean(false);
+
+	/**
+	 * Saves the build result of the project.
+	 *
+	 * @param project
+	 *            project
+	 * @param options
+	 *            frontend options used for the build
+	 * @param projectData
+	 *            build result
+	 * @param buildTime
+	 *            time the build started at, in milliseconds
+	 */
+	public static void save(IProject project, String[] options, ProjectData projectData, long buildTime) {
+		final Optional<File> cacheFile = getCacheFile(project.getName());
+		if (!cacheFile.isPresent()) {
+			return;
+		}
+		if (!(projectData instanceof Serializable)) {
+			logUnavailable(projectData.getClass().getName() + " is not serializable.");
+			return;
+		}
+		final Optional<Map<String, byte[]>> hashes = hashInputs(projectData, buildTime);
+		if (!hashes.isPresent()) {
+			return;
+		}
+		final File file = cacheFile.get();
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmpFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(options.length);
+			for (String option : options) {
+				out.writeUTF(option);
+			}
+			out.writeInt(hashes.get().size());
+			for (Map.Entry<String, byte[]> entry : hashes.get().entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeShort(entry.getValue().length);
+				out.write(entry.getValue());
+			}
+			final DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+			final ObjectOutputStream objectOut = new ObjectOutputStream(deflater);
+			objectOut.writeObject(projectData);
+			objectOut.flush();
+			deflater.finish();
+		} catch (NotSerializableException e) {
+			/* Some part of the project data cannot be persisted. */
+			logUnavailable(e.getMessage() + " is not serializable.");
+			tmpFile.delete();
+			return;
+		} catch (IOException e) {
+			e.printStackTrace();
+			tmpFile.delete();
+			return;
+		}
+		if (file.exists() && !file.delete() || !tmpFile.renameTo(file)) {
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * Loads the build result of the project, provided that the options and
+	 * all parsed files are the same as during the build.
+	 *
+	 * @param project
+	 *            project
+	 * @param options
+	 *            current frontend options
+	 * @return build result or <code>Optional.absent()</code> when there is no
+	 *         valid entry for the project
+	 */
+	public static Optional<ProjectData> load(IProject project, String[] options) {
+		final Optional<File> cacheFile = getCacheFile(project.getName());
+		if (!cacheFile.isPresent() || !cacheFile.get().isFile()) {
+			return Optional.absent();
+		}
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(cacheFile.get())))) {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+				return Optional.absent();
+			}
+			final String[] storedOptions = new String[in.readInt()];
+			for (int i = 0; i < storedOptions.length; ++i) {
+				storedOptions[i] = in.readUTF();
+			}
+			if (!Arrays.equals(options, storedOptions)) {
+				return Optional.absent();
+			}
+			final int filesCount = in.readInt();
+			for (int i = 0; i < filesCount; ++i) {
+				final String path = in.readUTF();
+				final byte[] storedHash = new byte[in.readShort()];
+				in.readFully(storedHash);
+				final Optional<byte[]> hash = hashFile(path);
+				if (!hash.isPresent() || !Arrays.equals(hash.get(), storedHash)) {
+					return Optional.absent();
+				}
+			}
+			final ObjectInputStream objectIn = new ObjectInputStream(new InflaterInputStream(in));
+			return Optional.of((ProjectData) objectIn.readObject());
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			/* Corrupted or outdated entry, e.g. classes of the frontend changed. */
+			e.printStackTrace();
+			return Optional.absent();
+		}
+	}
+
+	/**
+	 * Removes the entry of the project.
+	 *
+	 * @param projectName
+	 *            project name
+	 */
+	public static void delete(String projectName) {
+		final Optional<File> cacheFile = getCacheFile(projectName);
+		if (cacheFile.isPresent()) {
+			cacheFile.get().delete();
+		}
+	}
+
+	/**
+	 * Logs, only once per session, that build results cannot be persisted.
+	 */
+	private static void logUnavailable(String reason) {
+		final NescPlugin plugin = NescPlugin.getDefault();
+		if (plugin != null && UNAVAILABLE_LOGGED.compareAndSet(false, true)) {
+			plugin.getLog().log(new Status(IStatus.WARNING, NescPlugin.PLUGIN_ID,
+					"Project build results are not persisted: " + reason));
+		}
+	}
+
+	private static Optional<File> getCacheFile(String projectName) {
+		final NescPlugin plugin = NescPlugin.getDefault();
+		if (plugin == null) {
+			return Optional.absent();
+		}
+		final File cacheDir = plugin.getStateLocation().append(CACHE_DIR).toFile();
+		if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+			return Optional.absent();
+		}
+		return Optional.of(new File(cacheDir, projectName + CACHE_FILE_EXTENSION));
+	}
+
+	/**
+	 * Computes hashes of the files parsed during the build.
+	 *
+	 * @return hashes or <code>Optional.absent()</code> if some file cannot be
+	 *         read or was modified since the build started
+	 */
+	private static Optional<Map<String, byte[]>> hashInputs(ProjectData projectData, long buildTime) {
+		/* Sorted, so that the header does not depend on the map order. */
+		final Map<String, byte[]> result = new TreeMap<>();
+		for (FileData fileData : projectData.getFileDatas().values()) {
+			final String path = fileData.getFilePath();
+			final Optional<byte[]> hash = hashFile(path);
+			/*
+			 * The hashed contents must be the ones that were parsed, so files
+			 * modified since the build started are not accepted.
+			 */
+			if (!hash.isPresent() || new File(path).lastModified() + TIMESTAMP_RESOLUTION >= buildTime) {
+				return Optional.absent();
+			}
+			result.put(path, hash.get());
+		}
+		return Optional.of(result);
+	}
+
+	private static Optional<byte[]> hashFile(String path) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			e.printStackTrace();
+			return Optional.absent();
+		}
+		final byte[] buffer = new byte[8192];
+		try (final InputStream in = new FileInputStream(path)) {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		} catch (IOException e) {
+			return Optional.absent();
+		}
+		return Optional.of(digest.digest());
+	}
+
+	private ProjectDataStore() {
+	}
+}
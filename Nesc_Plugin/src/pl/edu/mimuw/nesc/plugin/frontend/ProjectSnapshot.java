@@ -0,0 +1,142 @@
+package pl.edu.mimuw.nesc.plugin.frontend;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pl.edu.mimuw.nesc.FileData;
+import pl.edu.mimuw.nesc.ProjectData;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Immutable view of the frontend data of a project at some point of time.
+ * Every build or update of the project produces a new snapshot with a greater
+ * version number. Readers should obtain a snapshot once and use it for the
+ * whole operation to see a consistent state of the project.
+ */
+public final class ProjectSnapshot {
+
+	/*
+	 * Versions are drawn from a global counter, so that they stay increasing
+	 * even if the context of a project is deleted and created again.
+	 */
+	private static final AtomicLong VERSIONS = new AtomicLong();
+
+	static final ProjectSnapshot EMPTY = new ProjectSnapshot(0L, null, ImmutableMap.<String, FileData> of(),
+			ImmutableMap.<String, Long> of());
+
+	private final long version;
+	private final ProjectData projectData;
+	private final ImmutableMap<String, FileData> filesMap;
+	/* Version of the snapshot in which the data of the file last changed. */
+	private final ImmutableMap<String, Long> fileVersions;
+
+	private ProjectSnapshot(long version, ProjectData projectData, ImmutableMap<String, FileData> filesMap,
+			ImmutableMap<String, Long> fileVersions) {
+		this.version = version;
+		this.projectData = projectData;
+		this.filesMap = filesMap;
+		this.fileVersions = fileVersions;
+	}
+
+	/**
+	 * Gets the version of the snapshot. Versions of successive snapshots of
+	 * the same project are strictly increasing.
+	 *
+	 * @return version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the data of the last full build of the project.
+	 *
+	 * @return project data or <code>null</code> if the project was not built
+	 *         yet
+	 */
+	public ProjectData getProjectData() {
+		return projectData;
+	}
+
+	public Map<String, FileData> getFilesMap() {
+		return filesMap;
+	}
+
+	public Optional<FileData> getFileData(String filePath) {
+		return Optional.fromNullable(filesMap.get(filePath));
+	}
+
+	/**
+	 * Gets the version of the snapshot in which the data of given file was
+	 * last changed. The version does not advance for files not affected by
+	 * an update.
+	 *
+	 * @param filePath
+	 *            file path
+	 * @return version of the file data or <code>0</code> if the file is not
+	 *         present in the snapshot
+	 */
+	public long getFileVersion(String filePath) {
+		final Long fileVersion = fileVersions.get(filePath);
+		return fileVersion != null ? fileVersion : 0L;
+	}
+
+	/**
+	 * Checks whether the data of some file of the last full build was replaced
+	 * by an update since the build.
+	 *
+	 * @return <code>true</code> if the project data of the snapshot is not up
+	 *         to date
+	 */
+	public boolean isUpdated() {
+		if (projectData == null) {
+			return false;
+		}
+		for (FileData fileData : projectData.getFileDatas().values()) {
+			if (filesMap.get(fileData.getFilePath()) != fileData) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Creates the successor of the snapshot containing the results of a full
+	 * project build.
+	 *
+	 * @param data
+	 *            result of the build
+	 * @return new snapshot
+	 */
+	ProjectSnapshot withBuild(ProjectData data) {
+		return merge(VERSIONS.incrementAndGet(), data, data);
+	}
+
+	/**
+	 * Creates the successor of the snapshot containing the results of a
+	 * single file update. The project data of the last build is preserved.
+	 *
+	 * @param data
+	 *            result of the update
+	 * @return new snapshot
+	 */
+	ProjectSnapshot withUpdate(ProjectData data) {
+		return merge(VERSIONS.incrementAndGet(), projectData, data);
+	}
+
+	private ProjectSnapshot merge(long newVersion, ProjectData newProjectData, ProjectData data) {
+		final Map<String, FileData> mergedFiles = new HashMap<>(filesMap);
+		final Map<String, Long> mergedVersions = new HashMap<>(fileVersions);
+		for (FileData fileData : data.getFileDatas().values()) {
+			final FileData previous = mergedFiles.put(fileData.getFilePath(), fileData);
+			if (previous != fileData) {
+				mergedVersions.put(fileData.getFilePath(), newVersion);
+			}
+		}
+		return new ProjectSnapshot(newVersion, newProjectData, ImmutableMap.copyOf(mergedFiles),
+				ImmutableMap.copyOf(mergedVersions));
+	}
+}
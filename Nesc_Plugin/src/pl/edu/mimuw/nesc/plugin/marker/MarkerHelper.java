@@ -1,28 +1,45 @@
 package pl.edu.mimuw.nesc.plugin.marker;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
-import org.eclipse.core.resources.IResourceVisitor;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.text.BadLocationException;
-import org.eclipse.jface.text.IDocument;
-import org.eclipse.ui.editors.text.TextFileDocumentProvider;
-import org.eclipse.ui.texteditor.IDocumentProvider;
 
 import pl.edu.mimuw.nesc.FileData;
 import pl.edu.mimuw.nesc.ProjectData;
 import pl.edu.mimuw.nesc.ast.Location;
 import pl.edu.mimuw.nesc.plugin.frontend.FrontendManager;
+import pl.edu.mimuw.nesc.plugin.frontend.ProjectSnapshot;
+import pl.edu.mimuw.nesc.plugin.preferences.NescPluginPreferences;
+import pl.edu.mimuw.nesc.plugin.projects.util.NescProjectPreferences;
+import pl.edu.mimuw.nesc.plugin.resources.LineOffsetTable;
+import pl.edu.mimuw.nesc.plugin.resources.ProjectFileIndex;
 import pl.edu.mimuw.nesc.problem.NescError;
 import pl.edu.mimuw.nesc.problem.NescIssue;
 import pl.edu.mimuw.nesc.problem.NescWarning;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 
 /**
@@ -35,6 +52,28 @@ public final class MarkerHelper {
 
 	public static final String ERROR_MARKER = "pl.edu.mimuw.nesc.plugin.marker.ErrorMarker";
 
+	/**
+	 * Marker attribute identifying the issue the marker was created for.
+	 */
+	private static final String ISSUE_KEY = "pl.edu.mimuw.nesc.plugin.marker.issueKey";
+
+	/**
+	 * Key of the marker reporting the number of issues without markers.
+	 */
+	private static final String SUMMARY_KEY = "summary";
+
+	/**
+	 * Version of the project snapshot the markers of the project were last
+	 * created from.
+	 */
+	private static final ConcurrentMap<String, Long> MARKED_VERSIONS = new ConcurrentHashMap<>();
+
+	/**
+	 * For each project, versions of the file data the markers of its files
+	 * were last created from. See {@link ProjectSnapshot#getFileVersion}.
+	 */
+	private static final ConcurrentMap<String, ConcurrentMap<String, Long>> MARKED_FILE_VERSIONS = new ConcurrentHashMap<>();
+
 	private MarkerHelper() {
 	}
 
@@ -45,20 +84,73 @@ public final class MarkerHelper {
 	 *            project
 	 * @throws CoreException
 	 */
-	public static void updateMarkers(IProject project) throws CoreException {
-		System.out.println("Updating error markers for project " + project.getName());
-		project.deleteMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE);
-		project.accept(new ProjectResourceVisitor(project));
-
-		/* Set errors for the project scope. */
-		final ProjectData data = FrontendManager.getProjectData(project);
-		if (data == null) {
+	public static void updateMarkers(final IProject project) throws CoreException {
+		/* Use the same snapshot for all files to get consistent markers. */
+		final Optional<ProjectSnapshot> snapshot = FrontendManager.getSnapshot(project);
+		if (!snapshot.isPresent()) {
+			return;
+		}
+		final long version = snapshot.get().getVersion();
+		final Long markedVersion = MARKED_VERSIONS.get(project.getName());
+		if (markedVersion != null && markedVersion >= version) {
+			/* Nothing has changed since the last update. */
 			return;
 		}
-		for (NescIssue issue : data.getIssues()) {
-			final IMarker marker = project.createMarker(ERROR_MARKER);
-			marker.setAttribute(IMarker.MESSAGE, issue.getMessage());
-			setMarkerType(marker, issue);
+
+		System.out.println("Updating error markers for project " + project.getName());
+		/* All changes of markers are reported in a single resource delta. */
+		runBatch(project, new IWorkspaceRunnable() {
+			@Override
+			public void run(IProgressMonitor monitor) throws CoreException {
+				final MarkerBudget budget = new MarkerBudget(project);
+				final ConcurrentMap<String, Long> markedFiles = new ConcurrentHashMap<>();
+				final ConcurrentMap<String, Long> previous = MARKED_FILE_VERSIONS.putIfAbsent(project.getName(),
+						markedFiles);
+				/*
+				 * Markers left by the previous session or by files that are no
+				 * longer analysed after a removal.
+				 */
+				if (previous == null || ProjectFileIndex.takeRemovals(project)) {
+					removeStaleMarkers(project, snapshot.get());
+				}
+				updateChangedFiles(project, snapshot.get(), previous != null ? previous : markedFiles, budget);
+
+				/* Set errors for the project scope. */
+				final ProjectData data = snapshot.get().getProjectData();
+				final List<IPath> externalPaths = getExternalPaths(project);
+				final List<Map<String, Object>> markers = new ArrayList<>();
+				int suppressed = 0;
+				if (data != null) {
+					for (NescIssue issue : data.getIssues()) {
+						if (isExternal(project, issue, externalPaths)) {
+							++suppressed;
+							continue;
+						}
+						final Map<String, Object> attributes = new HashMap<>();
+						attributes.put(IMarker.MESSAGE, issue.getMessage());
+						setMarkerType(attributes, issue);
+						attributes.put(ISSUE_KEY, getIssueKey(issue, attributes));
+						markers.add(attributes);
+					}
+				}
+				reconcileMarkers(project, applyLimits(project, markers, suppressed, budget));
+			}
+		});
+		/* Failed update is retried with the same snapshot. */
+		markVersion(project.getName(), version);
+	}
+
+	/**
+	 * Records the version of the snapshot the markers of the project were
+	 * created from, unless a newer one was recorded in the meantime.
+	 */
+	private static void markVersion(String projectName, long version) {
+		while (true) {
+			final Long markedVersion = MARKED_VERSIONS.putIfAbsent(projectName, version);
+			if (markedVersion == null || markedVersion >= version
+					|| MARKED_VERSIONS.replace(projectName, markedVersion, version)) {
+				return;
+			}
 		}
 	}
 
@@ -95,41 +187,305 @@ public final class MarkerHelper {
 	 *            a file's data
 	 * @throws CoreException
 	 */
-	public static void updateMarkers(IProject project, IFile file, FileData data) throws CoreException {
-		/* Delete existing markers in the current file. */
-		file.deleteMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE);
+	public static void updateMarkers(IProject project, final IFile file, final FileData data) throws CoreException {
+		runBatch(file, new IWorkspaceRunnable() {
+			@Override
+			public void run(IProgressMonitor monitor) throws CoreException {
+				updateFileMarkers(file, data, new MarkerBudget(file.getProject()));
+			}
+		});
+
+		/* Let the next project update skip the file. */
+		final ConcurrentMap<String, Long> markedFiles = MARKED_FILE_VERSIONS.get(project.getName());
+		final Optional<ProjectSnapshot> snapshot = FrontendManager.getSnapshot(project);
+		if (markedFiles != null && snapshot.isPresent()) {
+			final Optional<FileData> current = snapshot.get().getFileData(data.getFilePath());
+			if (current.isPresent() && current.get() == data) {
+				markedFiles.put(data.getFilePath(), snapshot.get().getFileVersion(data.getFilePath()));
+			}
+		}
+	}
+
+	/**
+	 * Updates markers of the files whose data changed since their markers were
+	 * last updated.
+	 */
+	private static void updateChangedFiles(IProject project, ProjectSnapshot snapshot,
+			ConcurrentMap<String, Long> markedFiles, MarkerBudget budget) throws CoreException {
+		for (Map.Entry<String, FileData> entry : snapshot.getFilesMap().entrySet()) {
+			final String filePath = entry.getKey();
+			final long fileVersion = snapshot.getFileVersion(filePath);
+			final Long markedVersion = markedFiles.get(filePath);
+			if (markedVersion != null && markedVersion >= fileVersion) {
+				continue;
+			}
+			final Optional<IFile> file = ProjectFileIndex.getFile(project, filePath);
+			/* Files outside the project, e.g. system headers, have no markers. */
+			if (file.isPresent() && file.get().exists()) {
+				updateFileMarkers(file.get(), entry.getValue(), budget);
+			}
+			markedFiles.put(filePath, fileVersion);
+		}
+	}
+
+	/**
+	 * Removes markers of files that are no longer analysed, e.g. left by the
+	 * previous session or after files included by them were removed.
+	 */
+	private static void removeStaleMarkers(IProject project, ProjectSnapshot snapshot) throws CoreException {
+		final List<IMarker> stale = new ArrayList<>();
+		for (IMarker marker : project.findMarkers(ERROR_MARKER, true, IResource.DEPTH_INFINITE)) {
+			final IResource resource = marker.getResource();
+			if (resource.getType() != IResource.FILE) {
+				continue;
+			}
+			final IPath location = resource.getLocation();
+			if (location == null || !snapshot.getFileData(location.toOSString()).isPresent()) {
+				stale.add(marker);
+			}
+		}
+		if (!stale.isEmpty()) {
+			project.getWorkspace().deleteMarkers(stale.toArray(new IMarker[stale.size()]));
+		}
+	}
+
+	/**
+	 * Runs given marker modifications as a single workspace operation, so
+	 * that listeners are notified only once.
+	 */
+	private static void runBatch(IResource resource, IWorkspaceRunnable runnable) throws CoreException {
+		final IWorkspace workspace = ResourcesPlugin.getWorkspace();
+		workspace.run(runnable, workspace.getRuleFactory().markerRule(resource), IWorkspace.AVOID_UPDATE, null);
+	}
 
+	private static void updateFileMarkers(IFile file, FileData data, MarkerBudget budget) throws CoreException {
 		/*
-		 * Get the document associated with a given file to be able to count
-		 * offsets of marker's start and end locations.
+		 * Get the line offsets of the file to be able to count offsets of
+		 * marker's start and end locations.
 		 */
-		final IDocumentProvider provider = new TextFileDocumentProvider();
-		provider.connect(file);
-		final IDocument document = provider.getDocument(file);
-		if (document == null) {
-			System.err.println("The associated document is null; file=" + file);
+		final LineOffsetTable lines;
+		try {
+			lines = LineOffsetTable.forFile(file);
+		} catch (IOException e) {
+			System.err.println("Cannot read file " + file + ": " + e.getMessage());
 			return;
 		}
 
-		/* Create a new marker for each issue. */
+		final List<IPath> externalPaths = getExternalPaths(file.getProject());
+		final List<Map<String, Object>> markers = new ArrayList<>();
+		int suppressed = 0;
 		for (NescIssue issue : data.getIssues().values()) {
-			IMarker marker = file.createMarker(ERROR_MARKER);
-			marker.setAttribute(IMarker.MESSAGE, issue.getMessage());
-			setMarkerType(marker, issue);
-			try {
-				setMarkerLocation(document, marker, issue.getStartLocation(), issue.getEndLocation());
-			} catch (CoreException e) {
-				// Marker with inaccurate location.
+			if (isExternal(file.getProject(), issue, externalPaths)) {
+				++suppressed;
+				continue;
+			}
+			final Map<String, Object> attributes = new HashMap<>();
+			attributes.put(IMarker.MESSAGE, issue.getMessage());
+			setMarkerType(attributes, issue);
+			setMarkerLocation(lines, attributes, issue.getStartLocation(), issue.getEndLocation());
+			attributes.put(ISSUE_KEY, getIssueKey(issue, attributes));
+			markers.add(attributes);
+		}
+		reconcileMarkers(file, applyLimits(file, markers, suppressed, budget));
+	}
+
+	/**
+	 * Restricts the number of markers of the resource to the limits set in
+	 * the preferences. Errors are preferred to warnings. When any issue is
+	 * left without a marker, a summary marker is added.
+	 *
+	 * @param resource
+	 *            resource
+	 * @param markers
+	 *            attributes of markers of all issues
+	 * @param suppressed
+	 *            number of issues in external headers that were skipped
+	 * @param budget
+	 *            markers left for the project, updated with the markers of
+	 *            the resource
+	 * @return attributes of markers to create
+	 * @throws CoreException
+	 */
+	private static List<Map<String, Object>> applyLimits(IResource resource, List<Map<String, Object>> markers,
+			int suppressed, MarkerBudget budget) throws CoreException {
+		final int ownMarkers = resource.findMarkers(ERROR_MARKER, true, IResource.DEPTH_ZERO).length;
+		final int limit = budget.getLimit(ownMarkers);
+		int hidden = 0;
+		List<Map<String, Object>> result = markers;
+		if (markers.size() > limit) {
+			final List<Map<String, Object>> sorted = new ArrayList<>(markers);
+			Collections.sort(sorted, new SeverityComparator());
+			hidden = sorted.size() - limit;
+			result = new ArrayList<>(sorted.subList(0, limit));
+		}
+		if (hidden + suppressed == 0) {
+			budget.update(ownMarkers, result.size());
+			return result;
+		}
+
+		final StringBuilder message = new StringBuilder();
+		message.append(hidden + suppressed).append(" issue(s) not shown: ");
+		if (hidden > 0) {
+			message.append(hidden).append(" over the marker limit");
+		}
+		if (suppressed > 0) {
+			message.append(hidden > 0 ? ", " : "").append(suppressed).append(" in TinyOS or nesC library headers");
+		}
+		final Map<String, Object> summary = new HashMap<>();
+		summary.put(IMarker.MESSAGE, message.toString());
+		summary.put(IMarker.SEVERITY, IMarker.SEVERITY_INFO);
+		summary.put(IMarker.PRIORITY, IMarker.PRIORITY_LOW);
+		summary.put(ISSUE_KEY, SUMMARY_KEY);
+		result.add(summary);
+		budget.update(ownMarkers, result.size());
+		return result;
+	}
+
+	/**
+	 * Gets the TinyOS and nesC library directories of the project, whose
+	 * issues are not reported if the user chose so. Projects may be located
+	 * inside the TinyOS tree, so the issues of their own files are never
+	 * suppressed.
+	 */
+	private static List<IPath> getExternalPaths(IProject project) {
+		final List<IPath> result = new ArrayList<>();
+		if (!NescPluginPreferences.getBoolean(NescPluginPreferences.SUPPRESS_EXTERNAL_ISSUES)) {
+			return result;
+		}
+		addPath(result, project, NescProjectPreferences.TINYOS_PATH, NescPluginPreferences.OS_LOC);
+		addPath(result, project, NescProjectPreferences.NCLIB_PATH, NescPluginPreferences.NCLIB_LOC);
+		return result;
+	}
+
+	private static void addPath(List<IPath> result, IProject project, String projectProperty,
+			String pluginProperty) {
+		String value = NescProjectPreferences.getProjectPreferenceValue(project, projectProperty);
+		if (value == null || value.isEmpty()) {
+			value = NescPluginPreferences.getString(pluginProperty);
+		}
+		if (value != null && !value.isEmpty()) {
+			result.add(new Path(value));
+		}
+	}
+
+	private static boolean isExternal(IProject project, NescIssue issue, List<IPath> externalPaths) {
+		if (externalPaths.isEmpty() || !issue.getStartLocation().isPresent()
+				|| issue.getStartLocation().get().getFilePath() == null) {
+			return false;
+		}
+		/*
+		 * Paths are compared by segments, e.g. /opt/tinyos is not a prefix of
+		 * /opt/tinyos-apps.
+		 */
+		final IPath filePath = new Path(issue.getStartLocation().get().getFilePath());
+		final IPath projectLocation = project.getLocation();
+		if (projectLocation != null && projectLocation.isPrefixOf(filePath)) {
+			return false;
+		}
+		for (IPath path : externalPaths) {
+			if (path.isPrefixOf(filePath)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Makes the markers of the resource match the given ones. Markers of
+	 * issues that are still present are kept (and updated if their attributes
+	 * changed), markers of issues that disappeared are deleted and only the
+	 * new issues get new markers. When nothing has changed, the resource is
+	 * not modified at all.
+	 *
+	 * @param resource
+	 *            resource
+	 * @param markers
+	 *            attributes of the expected markers
+	 * @throws CoreException
+	 */
+	private static void reconcileMarkers(IResource resource, List<Map<String, Object>> markers) throws CoreException {
+		final Map<String, List<IMarker>> existing = new HashMap<>();
+		final List<IMarker> obsolete = new ArrayList<>();
+		for (IMarker marker : resource.findMarkers(ERROR_MARKER, true, IResource.DEPTH_ZERO)) {
+			final Object key = marker.getAttribute(ISSUE_KEY);
+			if (!(key instanceof String)) {
+				/* Created by an older version of the plug-in. */
+				obsolete.add(marker);
+				continue;
+			}
+			List<IMarker> sameKey = existing.get(key);
+			if (sameKey == null) {
+				sameKey = new ArrayList<>();
+				existing.put((String) key, sameKey);
+			}
+			sameKey.add(marker);
+		}
+
+		for (Map<String, Object> attributes : markers) {
+			final List<IMarker> sameKey = existing.get(attributes.get(ISSUE_KEY));
+			if (sameKey == null || sameKey.isEmpty()) {
+				createMarker(resource, attributes);
+				continue;
+			}
+			final IMarker marker = sameKey.remove(sameKey.size() - 1);
+			/* Offsets change when the text before the issue was edited. */
+			if (!hasAttributes(marker, attributes)) {
+				setAttributes(marker, attributes);
+			}
+		}
+
+		for (List<IMarker> sameKey : existing.values()) {
+			obsolete.addAll(sameKey);
+		}
+		if (!obsolete.isEmpty()) {
+			resource.getWorkspace().deleteMarkers(obsolete.toArray(new IMarker[obsolete.size()]));
+		}
+	}
+
+	private static boolean hasAttributes(IMarker marker, Map<String, Object> attributes) throws CoreException {
+		for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+			if (!Objects.equal(marker.getAttribute(entry.getKey()), entry.getValue())) {
+				return false;
 			}
 		}
+		return true;
 	}
 
-	private static void setMarkerType(IMarker marker, NescIssue issue) {
-		issue.accept(new NescProblemVisitor(), marker);
+	/**
+	 * Gets the key identifying the issue. It is stable between builds as long
+	 * as the message, severity and location of the issue do not change.
+	 */
+	private static String getIssueKey(NescIssue issue, Map<String, Object> attributes) {
+		return attributes.get(IMarker.SEVERITY) + "|" + locationToString(issue.getStartLocation()) + "|"
+				+ locationToString(issue.getEndLocation()) + "|" + issue.getMessage();
 	}
 
-	private static void setMarkerLocation(IDocument document, IMarker marker, Optional<Location> startLocationOptional,
-			Optional<Location> endLocationOptional) throws CoreException {
+	private static String locationToString(Optional<Location> location) {
+		if (!location.isPresent()) {
+			return "";
+		}
+		return location.get().getLine() + ":" + location.get().getColumn();
+	}
+
+	private static void createMarker(IResource resource, Map<String, Object> attributes) throws CoreException {
+		setAttributes(resource.createMarker(ERROR_MARKER), attributes);
+	}
+
+	private static void setAttributes(IMarker marker, Map<String, Object> attributes) throws CoreException {
+		final String[] names = attributes.keySet().toArray(new String[attributes.size()]);
+		final Object[] values = new Object[names.length];
+		for (int i = 0; i < names.length; ++i) {
+			values[i] = attributes.get(names[i]);
+		}
+		marker.setAttributes(names, values);
+	}
+
+	private static void setMarkerType(Map<String, Object> attributes, NescIssue issue) {
+		issue.accept(new NescProblemVisitor(), attributes);
+	}
+
+	private static void setMarkerLocation(LineOffsetTable lines, Map<String, Object> attributes,
+			Optional<Location> startLocationOptional, Optional<Location> endLocationOptional) {
 		if (!startLocationOptional.isPresent()) {
 			// Marker without location.
 			return;
@@ -141,20 +497,20 @@ public final class MarkerHelper {
 		 * "unexpected end of file") but line is set to -1 in such cases.
 		 */
 		if (startLocation.getLine() < 0) {
-			marker.setAttribute(IMarker.CHAR_START, document.getLength() - 1);
-			marker.setAttribute(IMarker.CHAR_END, document.getLength() - 1);
+			attributes.put(IMarker.CHAR_START, lines.getLength() - 1);
+			attributes.put(IMarker.CHAR_END, lines.getLength() - 1);
 			return;
 		}
 
-		marker.setAttribute(IMarker.LINE_NUMBER, startLocation.getLine());
+		attributes.put(IMarker.LINE_NUMBER, startLocation.getLine());
 
 		try {
-			final int startOffset = getOffset(document, startLocation);
+			final int startOffset = getOffset(lines, startLocation);
 			final int endOffset;
 			if (endLocationOptional.isPresent()) {
 				final Location endLocation = endLocationOptional.get();
 				/* End offset is exclusive - add one. */
-				endOffset = getOffset(document, endLocation) + 1;
+				endOffset = getOffset(lines, endLocation) + 1;
 			} else {
 				endOffset = startOffset + 1;
 			}
@@ -162,16 +518,16 @@ public final class MarkerHelper {
 			 * Set the exact position when it is sure that no location causes an
 			 * exception.
 			 */
-			marker.setAttribute(IMarker.CHAR_START, startOffset);
-			marker.setAttribute(IMarker.CHAR_END, endOffset);
+			attributes.put(IMarker.CHAR_START, startOffset);
+			attributes.put(IMarker.CHAR_END, endOffset);
 		} catch (BadLocationException e) {
 			e.printStackTrace();
 			return;
 		}
 	}
 
-	private static int getOffset(IDocument document, Location location) throws BadLocationException {
-		return document.getLineOffset(location.getLine() - 1) + location.getColumn() - 1;
+	private static int getOffset(LineOffsetTable lines, Location location) throws BadLocationException {
+		return lines.getOffset(location.getLine(), location.getColumn());
 	}
 
 	/**
@@ -180,55 +536,78 @@ public final class MarkerHelper {
 	 * @author Grzegorz Kołakowski <gk291583@students.mimuw.edu.pl>
 	 *
 	 */
-	private static final class NescProblemVisitor implements NescIssue.Visitor<Void, IMarker> {
+	private static final class NescProblemVisitor implements NescIssue.Visitor<Void, Map<String, Object>> {
 
 		@Override
-		public Void visit(NescError error, IMarker marker) {
-			try {
-				marker.setAttribute(IMarker.PRIORITY, IMarker.PRIORITY_HIGH);
-				marker.setAttribute(IMarker.SEVERITY, IMarker.SEVERITY_ERROR);
-			} catch (CoreException e) {
-				// Nothing to do.
-				e.printStackTrace();
-			}
+		public Void visit(NescError error, Map<String, Object> attributes) {
+			attributes.put(IMarker.PRIORITY, IMarker.PRIORITY_HIGH);
+			attributes.put(IMarker.SEVERITY, IMarker.SEVERITY_ERROR);
 			return null;
 		}
 
 		@Override
-		public Void visit(NescWarning warning, IMarker marker) {
-			try {
-				marker.setAttribute(IMarker.PRIORITY, IMarker.PRIORITY_NORMAL);
-				marker.setAttribute(IMarker.SEVERITY, IMarker.SEVERITY_WARNING);
-			} catch (CoreException e) {
-				// Nothing to do.
-				e.printStackTrace();
-			}
+		public Void visit(NescWarning warning, Map<String, Object> attributes) {
+			attributes.put(IMarker.PRIORITY, IMarker.PRIORITY_NORMAL);
+			attributes.put(IMarker.SEVERITY, IMarker.SEVERITY_WARNING);
 			return null;
 		}
 	}
 
 	/**
+	 * Number of markers the resources of a project may still get. The markers
+	 * of the project are counted once per batch and the count is kept up to
+	 * date as the markers of its resources are replaced.
+	 */
+	private static final class MarkerBudget {
+
+		private final int perFile;
+		private final int perProject;
+		private int projectMarkers;
+
+		MarkerBudget(IProject project) throws CoreException {
+			final int perFile = NescPluginPreferences.getInt(NescPluginPreferences.MAX_MARKERS_PER_FILE);
+			this.perFile = perFile > 0 ? perFile : Integer.MAX_VALUE;
+			this.perProject = NescPluginPreferences.getInt(NescPluginPreferences.MAX_MARKERS_PER_PROJECT);
+			if (perProject > 0) {
+				this.projectMarkers = project.findMarkers(ERROR_MARKER, true, IResource.DEPTH_INFINITE).length;
+			}
+		}
+
+		/**
+		 * Gets the maximum number of markers of a resource.
+		 *
+		 * @param ownMarkers
+		 *            current number of markers of the resource
+		 * @return limit of markers
+		 */
+		int getLimit(int ownMarkers) {
+			if (perProject <= 0) {
+				return perFile;
+			}
+			return Math.min(perFile, Math.max(perProject - (projectMarkers - ownMarkers), 0));
+		}
+
+		void update(int oldMarkers, int newMarkers) {
+			projectMarkers += newMarkers - oldMarkers;
+		}
+	}
+
+	/**
+	 * Orders marker attributes from the most to the least severe.
 	 *
 	 * @author Grzegorz Kołakowski <gk291583@students.mimuw.edu.pl>
 	 *
 	 */
-	private static final class ProjectResourceVisitor implements IResourceVisitor {
-
-		private final IProject project;
+	private static final class SeverityComparator implements Comparator<Map<String, Object>> {
 
-		private ProjectResourceVisitor(IProject project) {
-			this.project = project;
+		@Override
+		public int compare(Map<String, Object> first, Map<String, Object> second) {
+			return Integer.compare(getSeverity(second), getSeverity(first));
 		}
 
-		@Override
-		public boolean visit(IResource resource) throws CoreException {
-			if (resource.getType() == IResource.FILE) {
-				final Optional<FileData> data = FrontendManager.getFileData(project, resource.getRawLocation().toOSString());
-				if (data.isPresent()) {
-					updateMarkers(project, (IFile) resource, data.get());
-				}
-			}
-			return true;
+		private static int getSeverity(Map<String, Object> attributes) {
+			final Object severity = attributes.get(IMarker.SEVERITY);
+			return severity instanceof Integer ? (Integer) severity : IMarker.SEVERITY_INFO;
 		}
 	}
 }
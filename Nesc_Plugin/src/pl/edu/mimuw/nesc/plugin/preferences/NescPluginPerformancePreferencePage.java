@@ -0,0 +1,128 @@
+package pl.edu.mimuw.nesc.plugin.preferences;
+
+import static pl.edu.mimuw.nesc.plugin.preferences.NescPluginPreferences.*;
+
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Spinner;
+
+/**
+ * Plugin preference page with settings affecting the performance of project
+ * builds and editors.
+ */
+public class NescPluginPerformancePreferencePage extends NescPreferencePage {
+
+	private static final String LAZY_BUILD_LABEL = "Build projects only when their files are opened in the editor";
+	private static final String BUILD_PARALLELISM_LABEL = "Projects built in parallel (0 - number of processors):";
+	private static final String MAX_CACHED_PROJECTS_LABEL = "Projects kept in memory (0 - no limit):";
+	private static final String PROJECT_IDLE_TIME_LABEL = "Minutes before idle projects leave memory (0 - never):";
+	private static final String REBUILD_DELAY_LABEL = "Delay of rebuild after settings change (ms):";
+	private static final String MAX_MARKERS_PER_FILE_LABEL = "Problem markers per file (0 - no limit):";
+	private static final String MAX_MARKERS_PER_PROJECT_LABEL = "Problem markers per project (0 - no limit):";
+	private static final String SUPPRESS_EXTERNAL_ISSUES_LABEL = "Hide problems in TinyOS and nesC library headers";
+	private static final String COMPLETION_TIME_BUDGET_LABEL = "Time to wait for all completion proposals (ms):";
+
+	private static final int MAX_BUILD_PARALLELISM = 64;
+	private static final int MAX_CACHED_PROJECTS_LIMIT = 1000;
+	private static final int MAX_PROJECT_IDLE_TIME = 1440;
+	private static final int MAX_REBUILD_DELAY = 10000;
+	private static final int MAX_MARKERS_LIMIT = 100000;
+	private static final int MAX_COMPLETION_TIME_BUDGET = 5000;
+
+	private Button lazyBuildButton;
+	private Spinner buildParallelismSpinner;
+	private Spinner maxCachedProjectsSpinner;
+	private Spinner projectIdleTimeSpinner;
+	private Spinner rebuildDelaySpinner;
+	private Spinner maxMarkersPerFileSpinner;
+	private Spinner maxMarkersPerProjectSpinner;
+	private Button suppressExternalIssuesButton;
+	private Spinner completionTimeBudgetSpinner;
+
+	@Override
+	protected Control createContents(Composite parent) {
+		final Composite container = new Composite(parent, SWT.NONE);
+		GridData parentData = new GridData(SWT.FILL, SWT.FILL, true, true);
+		GridLayout layout = new GridLayout(2, false);
+		container.setLayout(layout);
+		container.setLayoutData(parentData);
+
+		lazyBuildButton = createCheckbox(container, LAZY_BUILD_LABEL);
+		buildParallelismSpinner = createSpinner(container, BUILD_PARALLELISM_LABEL, 0, MAX_BUILD_PARALLELISM);
+		maxCachedProjectsSpinner = createSpinner(container, MAX_CACHED_PROJECTS_LABEL, 0, MAX_CACHED_PROJECTS_LIMIT);
+		projectIdleTimeSpinner = createSpinner(container, PROJECT_IDLE_TIME_LABEL, 0, MAX_PROJECT_IDLE_TIME);
+		rebuildDelaySpinner = createSpinner(container, REBUILD_DELAY_LABEL, 0, MAX_REBUILD_DELAY);
+		maxMarkersPerFileSpinner = createSpinner(container, MAX_MARKERS_PER_FILE_LABEL, 0, MAX_MARKERS_LIMIT);
+		maxMarkersPerProjectSpinner = createSpinner(container, MAX_MARKERS_PER_PROJECT_LABEL, 0, MAX_MARKERS_LIMIT);
+		suppressExternalIssuesButton = createCheckbox(container, SUPPRESS_EXTERNAL_ISSUES_LABEL);
+		completionTimeBudgetSpinner = createSpinner(container, COMPLETION_TIME_BUDGET_LABEL, 0,
+				MAX_COMPLETION_TIME_BUDGET);
+
+		initializeValues();
+		return container;
+	}
+
+	@Override
+	protected void initializeDefaults() {
+		final IPreferenceStore store = getPreferenceStore();
+		lazyBuildButton.setSelection(store.getDefaultBoolean(LAZY_BUILD));
+		buildParallelismSpinner.setSelection(store.getDefaultInt(BUILD_PARALLELISM));
+		maxCachedProjectsSpinner.setSelection(store.getDefaultInt(MAX_CACHED_PROJECTS));
+		projectIdleTimeSpinner.setSelection(store.getDefaultInt(PROJECT_IDLE_TIME));
+		rebuildDelaySpinner.setSelection(store.getDefaultInt(REBUILD_DELAY));
+		maxMarkersPerFileSpinner.setSelection(store.getDefaultInt(MAX_MARKERS_PER_FILE));
+		maxMarkersPerProjectSpinner.setSelection(store.getDefaultInt(MAX_MARKERS_PER_PROJECT));
+		suppressExternalIssuesButton.setSelection(store.getDefaultBoolean(SUPPRESS_EXTERNAL_ISSUES));
+		completionTimeBudgetSpinner.setSelection(store.getDefaultInt(COMPLETION_TIME_BUDGET));
+	}
+
+	@Override
+	protected void initializeValues() {
+		final IPreferenceStore store = getPreferenceStore();
+		lazyBuildButton.setSelection(store.getBoolean(LAZY_BUILD));
+		buildParallelismSpinner.setSelection(store.getInt(BUILD_PARALLELISM));
+		maxCachedProjectsSpinner.setSelection(store.getInt(MAX_CACHED_PROJECTS));
+		projectIdleTimeSpinner.setSelection(store.getInt(PROJECT_IDLE_TIME));
+		rebuildDelaySpinner.setSelection(store.getInt(REBUILD_DELAY));
+		maxMarkersPerFileSpinner.setSelection(store.getInt(MAX_MARKERS_PER_FILE));
+		maxMarkersPerProjectSpinner.setSelection(store.getInt(MAX_MARKERS_PER_PROJECT));
+		suppressExternalIssuesButton.setSelection(store.getBoolean(SUPPRESS_EXTERNAL_ISSUES));
+		completionTimeBudgetSpinner.setSelection(store.getInt(COMPLETION_TIME_BUDGET));
+	}
+
+	@Override
+	protected void storeValues() {
+		final IPreferenceStore store = getPreferenceStore();
+		store.setValue(LAZY_BUILD, lazyBuildButton.getSelection());
+		store.setValue(BUILD_PARALLELISM, buildParallelismSpinner.getSelection());
+		store.setValue(MAX_CACHED_PROJECTS, maxCachedProjectsSpinner.getSelection());
+		store.setValue(PROJECT_IDLE_TIME, projectIdleTimeSpinner.getSelection());
+		store.setValue(REBUILD_DELAY, rebuildDelaySpinner.getSelection());
+		store.setValue(MAX_MARKERS_PER_FILE, maxMarkersPerFileSpinner.getSelection());
+		store.setValue(MAX_MARKERS_PER_PROJECT, maxMarkersPerProjectSpinner.getSelection());
+		store.setValue(SUPPRESS_EXTERNAL_ISSUES, suppressExternalIssuesButton.getSelection());
+		store.setValue(COMPLETION_TIME_BUDGET, completionTimeBudgetSpinner.getSelection());
+	}
+
+	private static Button createCheckbox(Composite container, String label) {
+		final Button button = new Button(container, SWT.CHECK);
+		button.setText(label);
+		button.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 2, 1));
+		return button;
+	}
+
+	private static Spinner createSpinner(Composite container, String label, int minimum, int maximum) {
+		final Label spinnerLabel = new Label(container, SWT.NONE);
+		spinnerLabel.setText(label);
+		final Spinner spinner = new Spinner(container, SWT.BORDER);
+		spinner.setMinimum(minimum);
+		spinner.setMaximum(maximum);
+		return spinner;
+	}
+}
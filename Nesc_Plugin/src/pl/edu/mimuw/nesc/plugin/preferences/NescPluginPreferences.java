@@ -23,11 +23,28 @@ public final class NescPluginPreferences {
 	public static final String HWLIB_LOC = "pl.edu.mimuw.nesc.plugin.hwlib_loc";
 	public static final String HEAD_COMMENT = "pl.edu.mimuw.nesc.plugin.head_comment";
 	public static final String ENTITY_COMMENT = "pl.edu.mimuw.nesc.plugin.entity_comment";
+	public static final String LAZY_BUILD = "pl.edu.mimuw.nesc.plugin.lazy_build";
+	public static final String BUILD_PARALLELISM = "pl.edu.mimuw.nesc.plugin.build_parallelism";
+	public static final String MAX_CACHED_PROJECTS = "pl.edu.mimuw.nesc.plugin.max_cached_projects";
+	public static final String PROJECT_IDLE_TIME = "pl.edu.mimuw.nesc.plugin.project_idle_time";
+	public static final String REBUILD_DELAY = "pl.edu.mimuw.nesc.plugin.rebuild_delay";
+	public static final String MAX_MARKERS_PER_FILE = "pl.edu.mimuw.nesc.plugin.max_markers_per_file";
+	public static final String MAX_MARKERS_PER_PROJECT = "pl.edu.mimuw.nesc.plugin.max_markers_per_project";
+	public static final String SUPPRESS_EXTERNAL_ISSUES = "pl.edu.mimuw.nesc.plugin.suppress_external_issues";
+	public static final String COMPLETION_TIME_BUDGET = "pl.edu.mimuw.nesc.plugin.completion_time_budget";
 
 	public static String getString(String key) {
 		return getStore().getString(key);
 	}
 
+	public static boolean getBoolean(String key) {
+		return getStore().getBoolean(key);
+	}
+
+	public static int getInt(String key) {
+		return getStore().getInt(key);
+	}
+
 	private static IPreferenceStore getStore() {
 		return NescPlugin.getDefault().getPreferenceStore();
 	}
@@ -25,6 +25,28 @@ public class NescPreferencesInitializer extends AbstractPreferenceInitializer {
 		IPreferenceStore store = NescPlugin.getDefault().getPreferenceStore();
 		store.setDefault(NescPluginPreferences.PLATFORMS_DIR, ""); //$NON-NLS-1$
 		initializeDefaultComments();
+		initializeDefaultPerformanceSettings();
+	}
+
+	/**
+	 * Sets default values for the performance preferences.
+	 */
+	private void initializeDefaultPerformanceSettings() {
+		final IPreferenceStore store = NescPlugin.getDefault().getPreferenceStore();
+		store.setDefault(NescPluginPreferences.LAZY_BUILD, true);
+		/* Zero means the number of available processors. */
+		store.setDefault(NescPluginPreferences.BUILD_PARALLELISM, 0);
+		/* Zero means no limit. */
+		store.setDefault(NescPluginPreferences.MAX_CACHED_PROJECTS, 8);
+		/* Minutes, zero means that idle projects are kept. */
+		store.setDefault(NescPluginPreferences.PROJECT_IDLE_TIME, 10);
+		/* Milliseconds. */
+		store.setDefault(NescPluginPreferences.REBUILD_DELAY, 500);
+		store.setDefault(NescPluginPreferences.MAX_MARKERS_PER_FILE, 100);
+		store.setDefault(NescPluginPreferences.MAX_MARKERS_PER_PROJECT, 1000);
+		store.setDefault(NescPluginPreferences.SUPPRESS_EXTERNAL_ISSUES, true);
+		/* Milliseconds. */
+		store.setDefault(NescPluginPreferences.COMPLETION_TIME_BUDGET, 100);
 	}
 
 	/**
@@ -0,0 +1,246 @@
+package pl.edu.mimuw.nesc.plugin.resources;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.jface.text.BadLocationException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Table of offsets of the beginnings of lines of a file. Converts line and
+ * column numbers reported by the frontend to character offsets without
+ * loading the file into a document.
+ * </p>
+ * <p>
+ * The table is computed by scanning the bytes of the file through a small
+ * buffer, so neither the file nor its mapping is kept in memory. Bytes are
+ * counted directly for UTF-8 and single-byte charsets, files in other
+ * charsets, e.g. UTF-16, are decoded. Tables are cached until the
+ * modification stamp of the file changes.
+ * </p>
+ */
+public final class LineOffsetTable {
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final int CACHE_SIZE = 512;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/* Guarded by itself. Keys are file locations. */
+	private static final Map<String, LineOffsetTable> CACHE = new LinkedHashMap<String, LineOffsetTable>(16, 0.75f,
+			true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, LineOffsetTable> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private final int[] lineOffsets;
+	private final int length;
+	private final long modificationStamp;
+
+	/**
+	 * Gets the table of the file in its current state on disk.
+	 *
+	 * @param file
+	 *            file
+	 * @return table of line offsets
+	 * @throws IOException
+	 *             when the file could not be read
+	 */
+	public static LineOffsetTable forFile(IFile file) throws IOException {
+		Preconditions.checkNotNull(file, "file cannot be null");
+		final IPath location = file.getLocation();
+		if (location == null) {
+			throw new IOException("File " + file + " has no local location.");
+		}
+		final String key = location.toOSString();
+		final long stamp = file.getModificationStamp();
+		synchronized (CACHE) {
+			final LineOffsetTable cached = CACHE.get(key);
+			if (cached != null && cached.modificationStamp == stamp) {
+				return cached;
+			}
+		}
+		final Charset charset = getCharset(file);
+		final LineOffsetTable table = charset == null || UTF_8.equals(charset) || isSingleByte(charset) ? scan(key,
+				UTF_8.equals(charset), stamp) : decode(key, charset, stamp);
+		synchronized (CACHE) {
+			CACHE.put(key, table);
+		}
+		return table;
+	}
+
+	private static LineOffsetTable scan(String filePath, boolean utf8, long stamp) throws IOException {
+		final Builder builder = new Builder();
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		try (final FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					final int b = buffer.get() & 0xFF;
+					builder.add((char) b, utf8 ? utf8CharCount(b) : 1);
+				}
+				buffer.clear();
+			}
+		}
+		return builder.build(stamp);
+	}
+
+	private static LineOffsetTable decode(String filePath, Charset charset, long stamp) throws IOException {
+		final Builder builder = new Builder();
+		final CharsetDecoder decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+		final CharBuffer out = CharBuffer.allocate(BUFFER_SIZE);
+		try (final FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			while (true) {
+				final boolean endOfInput = channel.read(in) < 0;
+				in.flip();
+				CoderResult result;
+				do {
+					result = decoder.decode(in, out, endOfInput);
+					drain(out, builder);
+				} while (result.isOverflow());
+				if (endOfInput) {
+					do {
+						result = decoder.flush(out);
+						drain(out, builder);
+					} while (result.isOverflow());
+					break;
+				}
+				/* Keep the bytes of an incomplete character. */
+				in.compact();
+			}
+		}
+		return builder.build(stamp);
+	}
+
+	private static void drain(CharBuffer buffer, Builder builder) {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			builder.add(buffer.get(), 1);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Gets the number of Java characters the byte contributes to. Continuation
+	 * bytes do not start a new character, four-byte sequences are decoded into
+	 * surrogate pairs.
+	 */
+	private static int utf8CharCount(int b) {
+		if ((b & 0xC0) == 0x80) {
+			return 0;
+		}
+		return (b & 0xF8) == 0xF0 ? 2 : 1;
+	}
+
+	/**
+	 * Gets the charset of the file or <code>null</code> if it is unknown or
+	 * not supported, then bytes are counted as characters.
+	 */
+	private static Charset getCharset(IFile file) {
+		try {
+			return Charset.forName(file.getCharset());
+		} catch (CoreException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static boolean isSingleByte(Charset charset) {
+		return charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1.0f;
+	}
+
+	private LineOffsetTable(int[] lineOffsets, int length, long modificationStamp) {
+		this.lineOffsets = lineOffsets;
+		this.length = length;
+		this.modificationStamp = modificationStamp;
+	}
+
+	/**
+	 * Gets the number of characters in the file.
+	 *
+	 * @return length of the file
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	public int getLineCount() {
+		return lineOffsets.length;
+	}
+
+	/**
+	 * Gets the offset of the character at given position.
+	 *
+	 * @param line
+	 *            line number, starting from 1
+	 * @param column
+	 *            column number, starting from 1
+	 * @return offset
+	 * @throws BadLocationException
+	 *             when the line does not exist
+	 */
+	public int getOffset(int line, int column) throws BadLocationException {
+		if (line < 1 || line > lineOffsets.length) {
+			throw new BadLocationException("Line " + line + " does not exist.");
+		}
+		return lineOffsets[line - 1] + column - 1;
+	}
+
+	/**
+	 * Collects the offsets of lines. Lines are delimited by "\n", "\r\n" or
+	 * "\r", as in documents.
+	 */
+	private static final class Builder {
+
+		private int[] offsets = new int[64];
+		private int count = 1;
+		private int length = 0;
+		private boolean afterCarriageReturn = false;
+
+		void add(char c, int charCount) {
+			if (afterCarriageReturn && c != '\n') {
+				addLine(length);
+			}
+			length += charCount;
+			afterCarriageReturn = (c == '\r');
+			if (c == '\n') {
+				addLine(length);
+			}
+		}
+
+		LineOffsetTable build(long stamp) {
+			if (afterCarriageReturn) {
+				addLine(length);
+			}
+			return new LineOffsetTable(Arrays.copyOf(offsets, count), length, stamp);
+		}
+
+		private void addLine(int offset) {
+			if (count == offsets.length) {
+				offsets = Arrays.copyOf(offsets, count * 2);
+			}
+			offsets[count++] = offset;
+		}
+	}
+}
@@ -4,6 +4,9 @@ import static pl.edu.mimuw.nesc.plugin.projects.util.NescProjectPreferences.MAIN
 import static pl.edu.mimuw.nesc.plugin.projects.util.NescProjectPreferences.getProjectPreferenceValue;
 
 import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
@@ -12,11 +15,11 @@ import org.eclipse.core.resources.IResourceChangeEvent;
 import org.eclipse.core.resources.IResourceChangeListener;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IResourceDeltaVisitor;
-import org.eclipse.core.resources.IResourceVisitor;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
 import org.osgi.service.prefs.BackingStoreException;
@@ -24,8 +27,11 @@ import org.osgi.service.prefs.BackingStoreException;
 import pl.edu.mimuw.nesc.FileData;
 import pl.edu.mimuw.nesc.common.util.file.FileUtils;
 import pl.edu.mimuw.nesc.plugin.frontend.FrontendManager;
+import pl.edu.mimuw.nesc.plugin.frontend.ProjectBuildScheduler;
+import pl.edu.mimuw.nesc.plugin.frontend.ProjectSnapshot;
 import pl.edu.mimuw.nesc.plugin.marker.MarkerHelper;
 import pl.edu.mimuw.nesc.plugin.natures.NescProjectNature;
+import pl.edu.mimuw.nesc.plugin.preferences.NescPluginPreferences;
 
 import com.google.common.base.Optional;
 
@@ -39,6 +45,13 @@ public class NescResourceChangeListener implements IResourceChangeListener {
 
 	private static final NescResourceChangeListener INSTANCE = new NescResourceChangeListener();
 
+	/*
+	 * Rebuilds and refreshes of source directories of a project are done by
+	 * a single job per project. Requests arriving before the job starts are
+	 * merged into one run.
+	 */
+	private final ConcurrentMap<String, ProjectUpdateJob> updateJobs = new ConcurrentHashMap<>();
+
 	/**
 	 * Gets listener singleton.
 	 *
@@ -78,6 +91,12 @@ public class NescResourceChangeListener implements IResourceChangeListener {
 					System.out.println("Removing project " + resource.getName());
 					final String projectName = resource.getName();
 					FrontendManager.deleteContext(projectName);
+					ProjectFileIndex.remove(projectName);
+					ResourceUtil.removeProjectDirectories(projectName);
+					final ProjectUpdateJob job = updateJobs.remove(projectName);
+					if (job != null) {
+						job.cancel();
+					}
 				}
 			} catch (CoreException e) {
 				e.printStackTrace();
@@ -98,68 +117,171 @@ public class NescResourceChangeListener implements IResourceChangeListener {
 		}
 	}
 
-	private void rebuildProject(final IProject project) {
-		final Job job = new Job("Rebuilding project...") {
-			@Override
-			protected IStatus run(IProgressMonitor monitor) {
-				// TODO: handle errors
-				System.out.println("Recreate project context...");
-				FrontendManager.updateContext(project);
-				FrontendManager.buildContext(project);
-				try {
-					// marker are updated automatically after project rebuild
-					updateFiles(project);
-				} catch (CoreException e) {
-					e.printStackTrace();
-				}
-				return Status.OK_STATUS;
+	/**
+	 * Requests the rebuild of the project.
+	 *
+	 * @param project
+	 *            project
+	 * @param force
+	 *            <code>false</code> if the project should be rebuilt only if
+	 *            its options have changed
+	 */
+	private void rebuildProject(final IProject project, boolean force) {
+		/* Projects which were not used yet will be built when needed. */
+		if (NescPluginPreferences.getBoolean(NescPluginPreferences.LAZY_BUILD)
+				&& !FrontendManager.hasContext(project)) {
+			return;
+		}
+		getUpdateJob(project).request(force ? ProjectUpdateJob.FORCED_REBUILD : ProjectUpdateJob.REBUILD);
+	}
+
+	/**
+	 * Rebuilds the project.
+	 *
+	 * @return request which has to be repeated when the rebuild was
+	 *         interrupted, <code>0</code> otherwise
+	 */
+	private int rebuild(IProject project, boolean force, IProgressMonitor monitor) {
+		final int request = force ? ProjectUpdateJob.FORCED_REBUILD : ProjectUpdateJob.REBUILD;
+		if (monitor.isCanceled()) {
+			return request;
+		}
+		// TODO: handle errors
+		boolean optionsApplied = false;
+		try {
+			ProjectBuildScheduler.beginRule(project, monitor);
+			final boolean optionsChanged = FrontendManager.updateContext(project);
+			if (!optionsChanged && !force) {
+				return 0;
 			}
-		};
-		job.setPriority(Job.SHORT);
-		job.schedule();
+			/*
+			 * The new options are applied, but the context is not built yet.
+			 * The next run has to rebuild the project even though the options
+			 * will not change any more.
+			 */
+			optionsApplied = true;
+			if (monitor.isCanceled()) {
+				/* A newer request is waiting. */
+				return ProjectUpdateJob.FORCED_REBUILD;
+			}
+			FrontendManager.buildContext(project);
+			if (monitor.isCanceled()) {
+				return ProjectUpdateJob.FORCED_REBUILD;
+			}
+			// marker are updated automatically after project rebuild
+			updateFiles(project);
+		} catch (OperationCanceledException e) {
+			return optionsApplied ? ProjectUpdateJob.FORCED_REBUILD : request;
+		} catch (CoreException e) {
+			e.printStackTrace();
+		} finally {
+			ProjectBuildScheduler.endRule(project);
+		}
+		return 0;
+	}
+
+	private ProjectUpdateJob getUpdateJob(IProject project) {
+		final ProjectUpdateJob job = updateJobs.get(project.getName());
+		if (job != null) {
+			return job;
+		}
+		final ProjectUpdateJob newJob = new ProjectUpdateJob(project);
+		final ProjectUpdateJob previous = updateJobs.putIfAbsent(project.getName(), newJob);
+		return previous != null ? previous : newJob;
 	}
 
 	private void updateFiles(IProject project) throws CoreException {
-		IResourceVisitor visitor = new IResourceVisitor() {
-
-			@Override
-			public boolean visit(IResource resource) throws CoreException {
-				final int type = resource.getType();
-				final IPath path = resource.getFullPath();
-				final IProject project = resource.getProject();
-
-				if (type == IResource.FILE) {
-					final IFile file = (IFile) resource;
-					final Optional<FileData> data = FrontendManager.getFileData(project, path.toOSString());
-					if (data.isPresent()) {
-						MarkerHelper.updateMarkers(project, file, data.get());
-					}
-				}
-				return true;
+		final Optional<ProjectSnapshot> snapshot = FrontendManager.getSnapshot(project);
+		if (!snapshot.isPresent()) {
+			return;
+		}
+		/* Visit only the files analysed by the frontend. */
+		for (Map.Entry<String, FileData> entry : snapshot.get().getFilesMap().entrySet()) {
+			final Optional<IFile> file = ProjectFileIndex.getFile(project, entry.getKey());
+			if (file.isPresent() && file.get().exists()) {
+				MarkerHelper.updateMarkers(project, file.get(), entry.getValue());
 			}
-		};
-		project.accept(visitor);
+		}
 	}
 
 	private void refreshProjectDirectories(final IProject project) {
-		final Job job = new Job("Updating source folder settings...") {
-			@Override
-			protected IStatus run(IProgressMonitor monitor) {
-				try {
-					System.out.println("Updating the list of source directories...");
-					PathsUtil.refreshProjectDirectories(project);
-					/*
-					 * Rebuild will be automatically invoked when the change
-					 * listener is called with POST_CHANGE flag.
-					 */
-				} catch (BackingStoreException e) {
-					e.printStackTrace();
-				}
+		getUpdateJob(project).request(ProjectUpdateJob.REFRESH);
+	}
+
+	private void refresh(IProject project) {
+		try {
+			System.out.println("Updating the list of source directories...");
+			PathsUtil.refreshProjectDirectories(project);
+			/*
+			 * Rebuild will be automatically invoked when the change listener
+			 * is called with POST_CHANGE flag.
+			 */
+		} catch (BackingStoreException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Job performing the requested updates of a project after a quiet period
+	 * set in the preferences. Each new request postpones the job. A request
+	 * arriving while the job runs cancels the running rebuild and the job is
+	 * run again.
+	 */
+	private final class ProjectUpdateJob extends Job {
+
+		/** Rebuild if the options of the project have changed. */
+		static final int REBUILD = 1;
+		/** Rebuild even if the options are the same. */
+		static final int FORCED_REBUILD = 2;
+		static final int REFRESH = 4;
+
+		private final IProject project;
+
+		/* Guarded by this. */
+		private int requests;
+
+		private ProjectUpdateJob(IProject project) {
+			super("Updating project " + project.getName() + "...");
+			this.project = project;
+			setPriority(Job.SHORT);
+		}
+
+		void request(int request) {
+			synchronized (this) {
+				requests |= request;
+			}
+			/* Removes the job from the queue or interrupts the running rebuild. */
+			cancel();
+			schedule(NescPluginPreferences.getInt(NescPluginPreferences.REBUILD_DELAY));
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			final int current;
+			synchronized (this) {
+				current = requests;
+				requests = 0;
+			}
+			if (!project.isOpen()) {
 				return Status.OK_STATUS;
 			}
-		};
-		job.setPriority(Job.INTERACTIVE);
-		job.schedule();
+			/* Refresh first, it may change the options of the project. */
+			if ((current & REFRESH) != 0) {
+				refresh(project);
+			}
+			int pending = 0;
+			if ((current & (REBUILD | FORCED_REBUILD)) != 0) {
+				pending = rebuild(project, (current & FORCED_REBUILD) != 0, monitor);
+			}
+			if (pending != 0 || monitor.isCanceled()) {
+				/* Interrupted rebuild is done again in the next run. */
+				synchronized (this) {
+					requests |= pending;
+				}
+				return Status.CANCEL_STATUS;
+			}
+			return Status.OK_STATUS;
+		}
 	}
 
 	private class ResourceDeltaVisitor implements IResourceDeltaVisitor {
@@ -186,6 +308,10 @@ public class NescResourceChangeListener implements IResourceChangeListener {
 				return false;
 			}
 
+			if (type == IResource.FILE) {
+				ProjectFileIndex.update(delta);
+			}
+
 			/*
 			 * If root configuration is added/removed, rebuild project.
 			 */
@@ -198,7 +324,8 @@ public class NescResourceChangeListener implements IResourceChangeListener {
 					postAction = new Runnable() {
 						@Override
 						public void run() {
-							rebuildProject(project);
+							/* Options stay the same, but the sources have changed. */
+							rebuildProject(project, true);
 						}
 					};
 				}
@@ -208,12 +335,14 @@ public class NescResourceChangeListener implements IResourceChangeListener {
 				return true;
 			}
 
+			ResourceUtil.updateProjectDirectories(delta);
+
 			/* Settings directory. */
 			if (path.lastSegment().equals(".settings")) {
 				postAction = new Runnable() {
 					@Override
 					public void run() {
-						rebuildProject(project);
+						rebuildProject(project, false);
 					}
 				};
 				return false;
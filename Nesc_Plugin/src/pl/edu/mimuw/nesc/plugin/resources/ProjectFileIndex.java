@@ -0,0 +1,150 @@
+package pl.edu.mimuw.nesc.plugin.resources;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+
+import com.google.common.base.Optional;
+
+/**
+ * <p>
+ * Index of the source files of projects by their locations in the file
+ * system, i.e. by the paths the frontend uses to identify files.
+ * </p>
+ * <p>
+ * The index of a project is built on first use with a single pass over its
+ * resources and then kept up to date with resource deltas (see
+ * {@link NescResourceChangeListener}).
+ * </p>
+ */
+public final class ProjectFileIndex {
+
+	private static final String[] SOURCE_EXTENSIONS = { "nc", "h", "c" };
+
+	private static final ConcurrentMap<String, ConcurrentMap<String, IFile>> INDEXES = new ConcurrentHashMap<>();
+
+	/**
+	 * Names of projects whose source files were removed since the last call
+	 * of {@link #takeRemovals(IProject)}.
+	 */
+	private static final Set<String> REMOVALS = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Gets the file of the project located at given path.
+	 *
+	 * @param project
+	 *            project
+	 * @param filePath
+	 *            path in the file system
+	 * @return file or <code>Optional.absent()</code> if there is no source
+	 *         file at the location in the project
+	 */
+	public static Optional<IFile> getFile(IProject project, String filePath) {
+		return Optional.fromNullable(getIndex(project).get(filePath));
+	}
+
+	/**
+	 * Updates the index with the delta of a file.
+	 *
+	 * @param delta
+	 *            delta of a file resource
+	 */
+	public static void update(IResourceDelta delta) {
+		final IResource resource = delta.getResource();
+		if (resource.getType() != IResource.FILE || !isSourceFile(resource.getName())) {
+			return;
+		}
+		if (delta.getKind() == IResourceDelta.REMOVED) {
+			REMOVALS.add(resource.getProject().getName());
+		}
+		final ConcurrentMap<String, IFile> index = INDEXES.get(resource.getProject().getName());
+		final IPath location = resource.getLocation();
+		/* Index not built yet will include the change. */
+		if (index == null || location == null) {
+			return;
+		}
+		switch (delta.getKind()) {
+		case IResourceDelta.ADDED:
+			index.put(location.toOSString(), (IFile) resource);
+			break;
+		case IResourceDelta.REMOVED:
+			index.remove(location.toOSString());
+			break;
+		}
+	}
+
+	/**
+	 * Checks if any source file of the project was removed since the last
+	 * call and clears the flag.
+	 *
+	 * @param project
+	 *            project
+	 * @return <code>true</code> if files were removed
+	 */
+	public static boolean takeRemovals(IProject project) {
+		return REMOVALS.remove(project.getName());
+	}
+
+	/**
+	 * Drops the index of the project, e.g. when it is deleted.
+	 *
+	 * @param projectName
+	 *            project name
+	 */
+	public static void remove(String projectName) {
+		INDEXES.remove(projectName);
+		REMOVALS.remove(projectName);
+	}
+
+	private static ConcurrentMap<String, IFile> getIndex(IProject project) {
+		final ConcurrentMap<String, IFile> index = INDEXES.get(project.getName());
+		if (index != null) {
+			return index;
+		}
+		final ConcurrentMap<String, IFile> newIndex = new ConcurrentHashMap<>();
+		try {
+			/* Proxies avoid creating handles of unrelated resources. */
+			project.accept(new IResourceProxyVisitor() {
+				@Override
+				public boolean visit(IResourceProxy proxy) throws CoreException {
+					if (proxy.getType() == IResource.FILE && isSourceFile(proxy.getName())) {
+						final IFile file = (IFile) proxy.requestResource();
+						final IPath location = file.getLocation();
+						if (location != null) {
+							newIndex.put(location.toOSString(), file);
+						}
+					}
+					return true;
+				}
+			}, IResource.NONE);
+		} catch (CoreException e) {
+			e.printStackTrace();
+			/* Do not store the incomplete index. */
+			return newIndex;
+		}
+		final ConcurrentMap<String, IFile> previous = INDEXES.putIfAbsent(project.getName(), newIndex);
+		return previous != null ? previous : newIndex;
+	}
+
+	private static boolean isSourceFile(String name) {
+		for (String extension : SOURCE_EXTENSIONS) {
+			if (name.endsWith("." + extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private ProjectFileIndex() {
+	}
+}
@@ -1,10 +1,29 @@
 package pl.edu.mimuw.nesc.plugin.resources;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.runtime.IPath;
 
 /**
  * Utility class with methods for extracting data involving project's resources.
@@ -14,6 +33,18 @@ import org.eclipse.core.resources.IProject;
  */
 public final class ResourceUtil {
 
+	/**
+	 * Names of directories which are not searched for sources, e.g. build
+	 * output. Hidden directories (VCS metadata, settings) are skipped as well.
+	 */
+	private static final Set<String> EXCLUDED_DIRECTORIES = new HashSet<>(Arrays.asList("build", "bin", "CVS"));
+
+	/*
+	 * Subdirectories of projects, by project name. The tree of a project is
+	 * walked once and then updated with folder deltas.
+	 */
+	private static final ConcurrentMap<String, NavigableSet<String>> DIRECTORIES = new ConcurrentHashMap<>();
+
 	/**
 	 * Gets list of all subdirectories of given project.
 	 *
@@ -24,25 +55,109 @@ public final class ResourceUtil {
 	public static List<String> getProjectDirectories(IProject project) {
 		final List<String> directories = new ArrayList<>();
 		final String rootPath = project.getLocation().toOSString();
-		final File rootFile = new File(rootPath);
 		directories.add(getDisplayString(rootPath, rootPath));
-		visitDirectory(rootPath, rootFile, directories);
+		for (String path : getDirectoryTree(project, rootPath)) {
+			directories.add(getDisplayString(rootPath, path));
+		}
 		return directories;
 	}
 
-	private static void visitDirectory(String projectPath, File rootFile, List<String> directories) {
-		final File[] files = rootFile.listFiles();
-		if (files == null) {
+	/**
+	 * Updates the cached subdirectories of a project with the delta of a
+	 * folder.
+	 *
+	 * @param delta
+	 *            delta of a folder
+	 */
+	public static void updateProjectDirectories(IResourceDelta delta) {
+		final IResource resource = delta.getResource();
+		if (resource.getType() != IResource.FOLDER) {
+			return;
+		}
+		final NavigableSet<String> directories = DIRECTORIES.get(resource.getProject().getName());
+		final IPath location = resource.getLocation();
+		final IPath projectLocation = resource.getProject().getLocation();
+		/* The tree not walked yet will contain the change. */
+		if (directories == null || location == null || projectLocation == null) {
 			return;
 		}
-		for (File child : files) {
-			if (child.isDirectory()) {
-				final String path = child.getAbsolutePath();
-				final String projectDir = getDisplayString(projectPath, path);
-				directories.add(projectDir);
-				visitDirectory(projectPath, child, directories);
+		final String path = location.toOSString();
+		switch (delta.getKind()) {
+		case IResourceDelta.ADDED:
+			if (!isExcluded(location.makeRelativeTo(projectLocation).segments())) {
+				directories.add(path);
+			}
+			break;
+		case IResourceDelta.REMOVED:
+			directories.remove(path);
+			directories.subSet(path + File.separator, path + File.separator + Character.MAX_VALUE).clear();
+			break;
+		}
+	}
+
+	/**
+	 * Drops the cached subdirectories of the project.
+	 *
+	 * @param projectName
+	 *            project name
+	 */
+	public static void removeProjectDirectories(String projectName) {
+		DIRECTORIES.remove(projectName);
+	}
+
+	private static NavigableSet<String> getDirectoryTree(IProject project, String rootPath) {
+		final NavigableSet<String> directories = DIRECTORIES.get(project.getName());
+		if (directories != null) {
+			return directories;
+		}
+		final NavigableSet<String> newDirectories = new ConcurrentSkipListSet<>();
+		final Path root = Paths.get(rootPath);
+		try {
+			Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+					new SimpleFileVisitor<Path>() {
+						@Override
+						public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+							if (dir.equals(root)) {
+								return FileVisitResult.CONTINUE;
+							}
+							if (isExcluded(dir.getFileName().toString())) {
+								return FileVisitResult.SKIP_SUBTREE;
+							}
+							newDirectories.add(dir.toString());
+							return FileVisitResult.CONTINUE;
+						}
+
+						@Override
+						public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+							return FileVisitResult.CONTINUE;
+						}
+
+						@Override
+						public FileVisitResult visitFileFailed(Path file, IOException e) {
+							/* E.g. a cycle of symbolic links. */
+							return FileVisitResult.CONTINUE;
+						}
+					});
+		} catch (IOException e) {
+			e.printStackTrace();
+			/* Do not store the incomplete tree. */
+			return newDirectories;
+		}
+		final NavigableSet<String> previous = DIRECTORIES.putIfAbsent(project.getName(), newDirectories);
+		return previous != null ? previous : newDirectories;
+	}
+
+	private static boolean isExcluded(String[] segments) {
+		for (String segment : segments) {
+			if (isExcluded(segment)) {
+				return true;
 			}
 		}
+		return false;
+	}
+
+	private static boolean isExcluded(String name) {
+		return name.startsWith(".") || EXCLUDED_DIRECTORIES.contains(name);
 	}
 
 	private static String getDisplayString(String rootPath, String filePath) {
@@ -0,0 +1,188 @@
+package pl.edu.mimuw.nesc.plugin.frontend;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.resources.IProject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import pl.edu.mimuw.nesc.ProjectData;
+
+import com.google.common.base.Optional;
+
+/**
+ * Builds and updates several projects concurrently while other threads
+ * query their data. Must be run as a JUnit plug-in test.
+ */
+public class FrontendManagerConcurrencyTest {
+
+	private static final int PROJECTS_COUNT = 4;
+	private static final int BUILDS_PER_PROJECT = 5;
+	private static final int READERS_COUNT = 4;
+	private static final String PROJECT_PREFIX = "FrontendManagerConcurrencyTest_";
+
+	/* Declarations of the header making the build of a project slow. */
+	private static final int LARGE_HEADER_DECLARATIONS = 20000;
+	/* Maximum time of a read of a project while another one is built. */
+	private static final long MAX_READ_LATENCY = 100;
+
+	private static final List<IProject> PROJECTS = new ArrayList<>();
+	private static IProject largeProject;
+
+	@BeforeClass
+	public static void setUpProjects() throws Exception {
+		TestProjects.setUpPlatform();
+		for (int i = 0; i < PROJECTS_COUNT; ++i) {
+			PROJECTS.add(TestProjects.createProject(PROJECT_PREFIX + i));
+		}
+
+		final StringBuilder header = new StringBuilder();
+		for (int i = 0; i < LARGE_HEADER_DECLARATIONS; ++i) {
+			header.append("int variable").append(i).append(";\n");
+		}
+		largeProject = TestProjects.createProject(PROJECT_PREFIX + "large",
+				"#include \"Large.h\"\nconfiguration AppC { }\nimplementation { }\n");
+		TestProjects.createFile(largeProject, "Large.h", header.toString());
+	}
+
+	@AfterClass
+	public static void tearDownProjects() throws Exception {
+		for (IProject project : PROJECTS) {
+			TestProjects.deleteProject(project);
+		}
+		PROJECTS.clear();
+		TestProjects.deleteProject(largeProject);
+		TestProjects.tearDownPlatform();
+	}
+
+	@Test
+	public void testConcurrentBuildsUpdatesAndReads() throws Exception {
+		/* Readers always have a snapshot to check. */
+		for (IProject project : PROJECTS) {
+			FrontendManager.buildContext(project);
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(PROJECTS_COUNT + READERS_COUNT);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch writersDone = new CountDownLatch(PROJECTS_COUNT);
+		final AtomicInteger reads = new AtomicInteger();
+		final List<Future<?>> futures = new ArrayList<>();
+
+		try {
+			for (final IProject project : PROJECTS) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						start.await();
+						try {
+							final String filePath = getFilePath(project);
+							for (int i = 0; i < BUILDS_PER_PROJECT; ++i) {
+								FrontendManager.buildContext(project);
+								FrontendManager.updateFile(project, filePath);
+							}
+						} finally {
+							writersDone.countDown();
+						}
+						return null;
+					}
+				}));
+			}
+			for (int i = 0; i < READERS_COUNT; ++i) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						final long[] lastVersions = new long[PROJECTS_COUNT];
+						start.await();
+						while (writersDone.getCount() > 0) {
+							for (int j = 0; j < PROJECTS_COUNT; ++j) {
+								final IProject project = PROJECTS.get(j);
+								final Optional<ProjectSnapshot> snapshot = FrontendManager.getSnapshot(project);
+								assertTrue(snapshot.isPresent());
+								/* Readers never observe an older snapshot. */
+								assertTrue(snapshot.get().getVersion() >= lastVersions[j]);
+								lastVersions[j] = snapshot.get().getVersion();
+								assertTrue(snapshot.get().getFileData(getFilePath(project)).isPresent());
+								reads.incrementAndGet();
+							}
+						}
+						return null;
+					}
+				}));
+			}
+
+			start.countDown();
+			for (Future<?> future : futures) {
+				/* Rethrows exceptions and failed assertions of the threads. */
+				future.get(5, TimeUnit.MINUTES);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertTrue(reads.get() > 0);
+		for (IProject project : PROJECTS) {
+			assertTrue(FrontendManager.isBuilt(project));
+			final ProjectData projectData = FrontendManager.getProjectData(project);
+			assertTrue(projectData.getRootFileData().isPresent());
+			assertTrue(projectData.getRootFileData().get().getIssues().isEmpty());
+		}
+	}
+
+	@Test
+	public void testReadsDoNotWaitForBuildsOfOtherProjects() throws Exception {
+		final IProject project = PROJECTS.get(0);
+		FrontendManager.buildContext(project);
+		final String filePath = getFilePath(project);
+
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		final CountDownLatch buildStarted = new CountDownLatch(1);
+		final Future<Long> build = executor.submit(new Callable<Long>() {
+			@Override
+			public Long call() throws Exception {
+				buildStarted.countDown();
+				final long start = System.nanoTime();
+				FrontendManager.buildContext(largeProject);
+				return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			}
+		});
+
+		long maxLatency = 0;
+		int reads = 0;
+		try {
+			buildStarted.await();
+			while (!build.isDone()) {
+				final long start = System.nanoTime();
+				final Optional<ProjectSnapshot> snapshot = FrontendManager.getSnapshot(project);
+				assertTrue(snapshot.isPresent());
+				assertTrue(snapshot.get().getFileData(filePath).isPresent());
+				maxLatency = Math.max(maxLatency, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+				++reads;
+			}
+			final long buildTime = build.get();
+			/* Otherwise waiting for the build would not exceed the bound. */
+			assumeTrue(buildTime > 2 * MAX_READ_LATENCY);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertTrue(reads > 0);
+		assertTrue("reads waited " + maxLatency + "ms for the build of another project",
+				maxLatency <= MAX_READ_LATENCY);
+	}
+
+	private static String getFilePath(IProject project) {
+		return TestProjects.getMainConfiguration(project).getLocation().toOSString();
+	}
+}
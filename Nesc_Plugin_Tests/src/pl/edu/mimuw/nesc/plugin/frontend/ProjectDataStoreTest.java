@@ -0,0 +1,68 @@
+package pl.edu.mimuw.nesc.plugin.frontend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.Serializable;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.edu.mimuw.nesc.ProjectData;
+
+import com.google.common.base.Optional;
+
+/**
+ * Saves the result of a real build and restores it. Must be run as a JUnit
+ * plug-in test.
+ */
+public class ProjectDataStoreTest {
+
+	private static final String[] OPTIONS = { "-m", "AppC" };
+
+	private IProject project;
+
+	@Before
+	public void setUp() throws Exception {
+		TestProjects.setUpPlatform();
+		project = TestProjects.createProject("ProjectDataStoreTest");
+		/* Files modified just before the build are not persisted. */
+		final File file = TestProjects.getMainConfiguration(project).getLocation().toFile();
+		assertTrue(file.setLastModified(System.currentTimeMillis() - 60000));
+		project.refreshLocal(IResource.DEPTH_INFINITE, null);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestProjects.deleteProject(project);
+		TestProjects.tearDownPlatform();
+	}
+
+	@Test
+	public void testSaveAndLoad() {
+		final ProjectData projectData = FrontendManager.buildContext(project);
+		assertTrue("project data of the frontend cannot be persisted", projectData instanceof Serializable);
+
+		ProjectDataStore.save(project, OPTIONS, projectData, System.currentTimeMillis());
+		final Optional<ProjectData> restored = ProjectDataStore.load(project, OPTIONS);
+
+		assertTrue(restored.isPresent());
+		assertEquals(projectData.getFileDatas().keySet(), restored.get().getFileDatas().keySet());
+		assertTrue(restored.get().getRootFileData().isPresent());
+		assertEquals(projectData.getRootFileData().get().getFilePath(), restored.get().getRootFileData().get()
+				.getFilePath());
+	}
+
+	@Test
+	public void testLoadWithOtherOptions() {
+		final ProjectData projectData = FrontendManager.buildContext(project);
+		ProjectDataStore.save(project, OPTIONS, projectData, System.currentTimeMillis());
+
+		assertFalse(ProjectDataStore.load(project, new String[] { "-m", "OtherC" }).isPresent());
+	}
+}
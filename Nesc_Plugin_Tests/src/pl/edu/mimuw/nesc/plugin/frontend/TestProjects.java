@@ -0,0 +1,114 @@
+package pl.edu.mimuw.nesc.plugin.frontend;
+
+import static pl.edu.mimuw.nesc.plugin.projects.util.NescProjectPreferences.MAIN_CONFIGURATION;
+import static pl.edu.mimuw.nesc.plugin.projects.util.NescProjectPreferences.TINYOS_PLATFORM;
+import static pl.edu.mimuw.nesc.plugin.projects.util.NescProjectPreferences.TINYOS_PREDEFINED_PLATFORM;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+
+import pl.edu.mimuw.nesc.plugin.NescPlugin;
+import pl.edu.mimuw.nesc.plugin.preferences.NescPluginPreferences;
+import pl.edu.mimuw.nesc.plugin.projects.util.NescProjectPreferences;
+
+/**
+ * Creates minimal nesC projects for tests. The projects use a platform
+ * without any files, paths and macros, so they do not need TinyOS.
+ */
+final class TestProjects {
+
+	private static final String PLATFORM = "empty";
+	private static final String MAIN_CONFIGURATION_NAME = "AppC";
+	private static final String MAIN_CONFIGURATION_CONTENTS = "configuration AppC { }\nimplementation { }\n";
+
+	private static File platformsDir;
+	private static String oldPlatformsDir;
+
+	/**
+	 * Sets the directory of the platforms to one containing the empty
+	 * platform. Must be followed by {@link #tearDownPlatform()}.
+	 */
+	static void setUpPlatform() throws Exception {
+		platformsDir = Files.createTempDirectory("nesc-platforms").toFile();
+		Files.write(new File(platformsDir, PLATFORM + ".properties").toPath(), new byte[0]);
+		oldPlatformsDir = NescPlugin.getDefault().getPreferenceStore().getString(NescPluginPreferences.PLATFORMS_DIR);
+		NescPlugin.getDefault().getPreferenceStore().setValue(NescPluginPreferences.PLATFORMS_DIR,
+				platformsDir.getAbsolutePath());
+	}
+
+	static void tearDownPlatform() {
+		NescPlugin.getDefault().getPreferenceStore().setValue(NescPluginPreferences.PLATFORMS_DIR, oldPlatformsDir);
+		for (File file : platformsDir.listFiles()) {
+			file.delete();
+		}
+		platformsDir.delete();
+	}
+
+	/**
+	 * Creates a project with an empty main configuration.
+	 *
+	 * @param name
+	 *            name of the project
+	 * @return open project
+	 */
+	static IProject createProject(String name) throws Exception {
+		return createProject(name, MAIN_CONFIGURATION_CONTENTS);
+	}
+
+	/**
+	 * Creates a project with given contents of the main configuration.
+	 *
+	 * @param name
+	 *            name of the project
+	 * @param contents
+	 *            contents of the main configuration <code>AppC</code>
+	 * @return open project
+	 */
+	static IProject createProject(String name, String contents) throws Exception {
+		final IProject project = ResourcesPlugin.getWorkspace().getRoot().getProject(name);
+		if (!project.exists()) {
+			project.create(null);
+		}
+		project.open(null);
+		createFile(project, MAIN_CONFIGURATION_NAME + ".nc", contents);
+		NescProjectPreferences.transaction(project)
+				.set(MAIN_CONFIGURATION, MAIN_CONFIGURATION_NAME)
+				.set(TINYOS_PLATFORM, PLATFORM)
+				.set(TINYOS_PREDEFINED_PLATFORM, false)
+				.commit();
+		return project;
+	}
+
+	/**
+	 * Creates or overwrites a file in the project.
+	 */
+	static IFile createFile(IProject project, String name, String contents) throws CoreException {
+		final IFile file = project.getFile(name);
+		final ByteArrayInputStream source = new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8));
+		if (file.exists()) {
+			file.setContents(source, true, false, null);
+		} else {
+			file.create(source, true, null);
+		}
+		return file;
+	}
+
+	static void deleteProject(IProject project) throws CoreException {
+		FrontendManager.deleteContext(project.getName());
+		project.delete(true, true, null);
+	}
+
+	static IFile getMainConfiguration(IProject project) {
+		return project.getFile(MAIN_CONFIGURATION_NAME + ".nc");
+	}
+
+	private TestProjects() {
+	}
+}